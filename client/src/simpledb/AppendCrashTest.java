@@ -0,0 +1,91 @@
+package simpledb;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import simpledb.buffer.PageFormatter;
+import simpledb.file.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+/* Checks that a block appended by a committed transaction
+ * survives an operating system crash.
+ *
+ * The program runs a second copy of itself, which appends a block
+ * to a new file (with a formatter that writes a value that is not
+ * logged), sets a logged value in the block, and commits.
+ * The copy then simulates a crash before any data page is flushed:
+ * each file that has writes the file manager has not forced
+ * is put back the way it was when the database was last forced,
+ * and the process halts without shutting down.
+ * The program then recovers the database and checks both values.
+ * Since an append is not logged, the program fails unless
+ * the commit forced the appended file.
+ *
+ * The program builds a fresh database named "appendcrashtest" in the
+ * user's home directory, so it can be run without the server.
+ */
+
+public class AppendCrashTest {
+	private static final String DBNAME = "appendcrashtest";
+	private static final String FILENAME = "crash.dat";
+	private static final int FORMATTED = 77;
+	private static final int LOGGED = 42;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("crash")) {
+			crash();
+			return;
+		}
+		ScratchDatabase.delete(DBNAME);
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process p = new ProcessBuilder(java, "-Duser.home=" + System.getProperty("user.home"),
+				"-cp", System.getProperty("java.class.path"),
+				AppendCrashTest.class.getName(), "crash").inheritIO().start();
+		if (p.waitFor() != 0)
+			throw new RuntimeException("the crashing process failed");
+
+		SimpleDB.init(DBNAME);
+		Transaction tx = new Transaction();
+		Block blk = new Block(FILENAME, 0);
+		tx.pin(blk);
+		int formatted = tx.getInt(blk, 4);
+		int logged = tx.getInt(blk, 0);
+		tx.commit();
+		System.out.printf("after recovery: formatted value %d, logged value %d%n", formatted, logged);
+		if (formatted != FORMATTED || logged != LOGGED)
+			throw new RuntimeException("the appended block was lost in the crash");
+	}
+
+	private static void crash() throws Exception {
+		SimpleDB.BG_WRITER_PERCENT = 0;
+		SimpleDB.init(DBNAME);
+		FileMgr fm = SimpleDB.fileMgr();
+		fm.forceAll();
+		File dir = new File(System.getProperty("user.home"), DBNAME);
+		Map<String,byte[]> forced = new HashMap<String,byte[]>();
+		for (File f : dir.listFiles())
+			forced.put(f.getName(), Files.readAllBytes(f.toPath()));
+
+		Transaction tx = new Transaction();
+		Block blk = tx.append(FILENAME, new PageFormatter() {
+			public void format(Page p) {
+				p.setInt(0, 0);
+				p.setInt(4, FORMATTED);
+			}
+		});
+		tx.pin(blk);
+		tx.setInt(blk, 0, LOGGED);
+		tx.commit();
+
+		for (String filename : fm.unforcedFiles()) {
+			File f = new File(dir, filename);
+			byte[] bytes = forced.get(filename);
+			if (bytes == null)
+				f.delete();
+			else
+				Files.write(f.toPath(), bytes);
+		}
+		Runtime.getRuntime().halt(0);
+	}
+}
@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.util.Random;
+import simpledb.buffer.*;
+import simpledb.file.Block;
+import simpledb.server.SimpleDB;
+
+/* Measures the cost of pinning and unpinning a block
+ * as the buffer pool grows from 8 to 1M frames.
+ *
+ * For each pool size, the program first pins every frame
+ * to a distinct block, and then measures two kinds of pin:
+ * a hit, which pins a random block that is already in the pool,
+ * and a miss, which pins a block that is not, and so must
+ * replace an unpinned frame.
+ * The blocks lie beyond the end of an empty file, so a miss
+ * costs a read system call but no actual disk transfer.
+ *
+ * Each frame holds a page of direct memory, so the largest pools
+ * need several gigabytes; a pool that does not fit is reported
+ * and skipped (run with a larger -XX:MaxDirectMemorySize to include it).
+ * The program builds a fresh database named "pinbench" in the
+ * user's home directory, so it can be run without the server.
+ */
+
+public class BufferPinBenchmark {
+	private static final int[] POOL_SIZES = {8, 64, 512, 4096, 32768, 262144, 1048576};
+	private static final int NUM_PINS = 1000000;
+	private static final int NUM_MISSES = 100000;
+
+	public static void main(String[] args) {
+		String dbname = "pinbench";
+		ScratchDatabase.delete(dbname);
+		SimpleDB.initFileAndLogMgr(dbname);
+
+		for (int poolsize : POOL_SIZES) {
+			try {
+				measure(poolsize);
+			}
+			catch (OutOfMemoryError e) {
+				System.out.printf("pool %8d: not enough memory%n", poolsize);
+			}
+			System.gc();
+		}
+	}
+
+	private static void measure(int poolsize) {
+		BufferMgr bm = new BufferMgr(poolsize);
+		String filename = "pinbench.tbl";
+		for (int i=0; i<poolsize; i++)
+			bm.unpin(bm.pin(new Block(filename, i)));
+
+		// the hits come first, while every block is still in the pool
+		Random rand = new Random(1);
+		double hitnanos = 0;
+		for (int round=0; round<2; round++) {  // the first round is a warmup
+			long start = System.nanoTime();
+			for (int i=0; i<NUM_PINS; i++)
+				bm.unpin(bm.pin(new Block(filename, rand.nextInt(poolsize))));
+			hitnanos = (double) (System.nanoTime() - start) / NUM_PINS;
+		}
+
+		int nextblk = poolsize;
+		double missnanos = 0;
+		for (int round=0; round<2; round++) {
+			long start = System.nanoTime();
+			for (int i=0; i<NUM_MISSES; i++)
+				bm.unpin(bm.pin(new Block(filename, nextblk++)));
+			missnanos = (double) (System.nanoTime() - start) / NUM_MISSES;
+		}
+		System.out.printf("pool %8d: hit %8.1f ns/pin, miss %8.1f ns/pin%n",
+				poolsize, hitnanos, missnanos);
+	}
+}
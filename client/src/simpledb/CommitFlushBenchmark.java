@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.util.*;
+import simpledb.buffer.*;
+import simpledb.file.Block;
+import simpledb.server.SimpleDB;
+
+/* Measures the cost of flushing a committing transaction's
+ * modified buffers, as the buffer pool grows.
+ *
+ * Each simulated transaction modifies a few random blocks
+ * of a full pool, and its buffers are then flushed in one of two ways:
+ * by scanning the whole pool for buffers it modified (flushAll),
+ * which is what a commit used to do,
+ * or by looking up only the blocks it modified (flush),
+ * which is what a commit does now.
+ * Both write the same pages and force the file,
+ * so the difference between them is the cost of the scan.
+ * The background writer is turned off, so that every
+ * modified page is still dirty when it is flushed.
+ *
+ * Each frame holds a page of direct memory; a pool that does
+ * not fit is reported and skipped.
+ * The program builds a fresh database named "commitbench" in the
+ * user's home directory, so it can be run without the server.
+ */
+
+public class CommitFlushBenchmark {
+	private static final int[] POOL_SIZES = {512, 4096, 32768, 262144};
+	private static final int NUM_COMMITS = 500;
+	private static final int BLOCKS_PER_TX = 4;
+
+	public static void main(String[] args) {
+		String dbname = "commitbench";
+		ScratchDatabase.delete(dbname);
+		SimpleDB.initFileAndLogMgr(dbname);
+		SimpleDB.BG_WRITER_PERCENT = 0;
+
+		for (int poolsize : POOL_SIZES) {
+			try {
+				measure(poolsize);
+			}
+			catch (OutOfMemoryError e) {
+				System.out.printf("pool %8d: not enough memory%n", poolsize);
+			}
+			System.gc();
+		}
+	}
+
+	private static void measure(int poolsize) {
+		BufferMgr bm = new BufferMgr(poolsize);
+		String filename = "commitbench.tbl";
+		for (int i=0; i<poolsize; i++)
+			bm.unpin(bm.pin(new Block(filename, i)));
+
+		Random rand = new Random(1);
+		long scannanos = 0, tracknanos = 0;
+		for (int txnum=0; txnum<NUM_COMMITS; txnum++) {
+			List<Block> modified = new ArrayList<Block>();
+			for (int i=0; i<BLOCKS_PER_TX; i++) {
+				Block blk = new Block(filename, rand.nextInt(poolsize));
+				Buffer buff = bm.pin(blk);
+				buff.setInt(0, txnum, txnum, -1);
+				bm.unpin(buff);
+				modified.add(blk);
+			}
+			// alternate the methods, so that both see the same conditions
+			long start = System.nanoTime();
+			if (txnum % 2 == 0)
+				bm.flushAll(txnum);
+			else
+				bm.flush(txnum, modified);
+			long nanos = System.nanoTime() - start;
+			if (txnum % 2 == 0)
+				scannanos += nanos;
+			else
+				tracknanos += nanos;
+		}
+		int n = NUM_COMMITS / 2;
+		System.out.printf("pool %8d: flushAll %8.1f us/commit, flush %8.1f us/commit%n",
+				poolsize, scannanos / 1000.0 / n, tracknanos / 1000.0 / n);
+	}
+}
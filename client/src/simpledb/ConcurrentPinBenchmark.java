@@ -0,0 +1,68 @@
+package simpledb;
+
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import simpledb.buffer.*;
+import simpledb.file.Block;
+import simpledb.server.SimpleDB;
+
+/* Measures the throughput of concurrent pins and unpins,
+ * for an unpartitioned buffer pool and a striped one.
+ *
+ * Each thread repeatedly pins and unpins a random block
+ * that is already in the pool, so the measurement is of
+ * the buffer manager's locking and not of the disk.
+ * With a single stripe, every pin contends for the same lock;
+ * with one stripe per few processors, the throughput
+ * should grow with the number of threads, up to the
+ * number of processors.
+ * The program builds a fresh database named "concpinbench"
+ * in the user's home directory, so it can be run without the server.
+ */
+
+public class ConcurrentPinBenchmark {
+	private static final int POOL_SIZE = 4096;
+	private static final int[] THREADS = {1, 2, 4, 8, 16};
+	private static final long MILLIS = 2000;
+
+	public static void main(String[] args) throws Exception {
+		String dbname = "concpinbench";
+		ScratchDatabase.delete(dbname);
+		SimpleDB.initFileAndLogMgr(dbname);
+		System.out.println(Runtime.getRuntime().availableProcessors() + " processors");
+
+		for (int stripes : new int[] {1, 0}) {
+			SimpleDB.BUFFER_STRIPES = stripes;
+			BufferMgr bm = new BufferMgr(POOL_SIZE);
+			for (int i=0; i<POOL_SIZE; i++)
+				bm.unpin(bm.pin(new Block("concpinbench.tbl", i)));
+			for (int numthreads : THREADS)
+				System.out.printf("%3d stripes, %2d threads: %6.2f million pins/sec%n",
+						bm.stripes(), numthreads, measure(bm, numthreads) / 1e6);
+		}
+	}
+
+	private static double measure(final BufferMgr bm, int numthreads) throws InterruptedException {
+		final LongAdder count = new LongAdder();
+		final long end = System.currentTimeMillis() + MILLIS;
+		Thread[] threads = new Thread[numthreads];
+		for (int t=0; t<numthreads; t++) {
+			final Random rand = new Random(t);
+			threads[t] = new Thread() {
+				public void run() {
+					long n = 0;
+					while (System.currentTimeMillis() < end) {
+						for (int i=0; i<1000; i++)
+							bm.unpin(bm.pin(new Block("concpinbench.tbl", rand.nextInt(POOL_SIZE))));
+						n += 1000;
+					}
+					count.add(n);
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		return count.sum() * 1000.0 / MILLIS;
+	}
+}
@@ -0,0 +1,84 @@
+package simpledb;
+
+import simpledb.buffer.PageFormatter;
+import simpledb.file.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+/* Measures commit throughput with and without group commit,
+ * as the number of concurrent committers grows.
+ *
+ * Each committer repeatedly runs a transaction that modifies
+ * an integer in a block of its own (so that committers never
+ * wait for each other's locks) and commits.
+ * Without group commit, every commit writes and forces the
+ * log by itself; with group commit, the commits that are
+ * waiting at the same time share a single force of the log.
+ * The modified blocks are not forced at commit,
+ * so the log force is the only disk sync of a commit.
+ *
+ * Group commit is switched on and off between measurements,
+ * since the log manager reads SimpleDB.GROUP_COMMIT at each flush.
+ *
+ * The program builds a fresh database named "groupcommitbench" in the
+ * user's home directory, so it can be run without the server.
+ */
+
+public class GroupCommitBenchmark {
+	private static final int[] NUM_THREADS = {1, 4, 16, 64};
+	private static final int SECONDS = 3;
+	private static final String FILENAME = "groupcommitbench.tbl";
+
+	public static void main(String[] args) throws Exception {
+		String dbname = "groupcommitbench";
+		ScratchDatabase.delete(dbname);
+		SimpleDB.BUFFER_SIZE = 256;
+		SimpleDB.initFileLogAndBufferMgr(dbname);
+		int maxthreads = NUM_THREADS[NUM_THREADS.length - 1];
+		Transaction tx = new Transaction();
+		for (int i=0; i<maxthreads; i++)
+			tx.append(FILENAME, new PageFormatter() {
+				public void format(Page p) {
+					p.setInt(0, 0);
+				}
+			});
+		tx.commit();
+
+		for (int numthreads : NUM_THREADS) {
+			double off = measure(numthreads, false);
+			double on  = measure(numthreads, true);
+			System.out.printf("%3d committers: %8.0f commits/s without group commit, %8.0f with%n",
+					numthreads, off, on);
+		}
+	}
+
+	private static double measure(int numthreads, boolean groupcommit)
+			throws InterruptedException {
+		SimpleDB.GROUP_COMMIT = groupcommit;
+		final long end = System.currentTimeMillis() + SECONDS * 1000;
+		final long[] commits = new long[numthreads];
+		Thread[] threads = new Thread[numthreads];
+		for (int i=0; i<numthreads; i++) {
+			final int id = i;
+			threads[i] = new Thread() {
+				public void run() {
+					Block blk = new Block(FILENAME, id);
+					while (System.currentTimeMillis() < end) {
+						Transaction tx = new Transaction();
+						tx.pin(blk);
+						tx.setInt(blk, 0, tx.getInt(blk, 0) + 1);
+						tx.commit();
+						commits[id]++;
+					}
+				}
+			};
+			threads[i].start();
+		}
+		long total = 0;
+		for (int i=0; i<numthreads; i++) {
+			threads[i].join();
+			total += commits[i];
+		}
+		return total / (double) SECONDS;
+	}
+}
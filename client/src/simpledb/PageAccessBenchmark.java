@@ -0,0 +1,63 @@
+package simpledb;
+
+import simpledb.file.Block;
+import simpledb.record.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+/* Measures the cost of reading a field through a RecordPage,
+ * which is dominated by the Page accessors underneath it.
+ *
+ * The program fills one block of a table having an integer and
+ * a string field, and then repeatedly reads every field of every
+ * record in the block, reporting the average time per field.
+ * The warmup rounds give the JIT compiler time to settle.
+ * It builds a fresh database named "pagebench" in the user's
+ * home directory, so it can be run without the server.
+ */
+
+public class PageAccessBenchmark {
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 10;
+	private static final int READS_PER_ROUND = 2000;
+
+	public static void main(String[] args) {
+		String dbname = "pagebench";
+		ScratchDatabase.delete(dbname);
+		SimpleDB.init(dbname);
+
+		Schema sch = new Schema();
+		sch.addIntField("id");
+		sch.addStringField("name", 20);
+		TableInfo ti = new TableInfo("pagebench", sch);
+
+		Transaction tx = new Transaction();
+		RecordFile rf = new RecordFile(ti, tx);
+		RecordPage rp = new RecordPage(new Block(ti.fileName(), 0), ti, tx);
+		int numrecs = 0;
+		while (rp.insert()) {
+			rp.setInt("id", numrecs);
+			rp.setString("name", "record" + numrecs);
+			numrecs++;
+		}
+
+		for (int round=0; round<WARMUP_ROUNDS+ROUNDS; round++) {
+			long start = System.nanoTime();
+			long check = 0;
+			for (int i=0; i<READS_PER_ROUND; i++) {
+				rp.moveToId(-1);
+				while (rp.next()) {
+					check += rp.getInt("id");
+					check += rp.getString("name").length();
+				}
+			}
+			long elapsed = System.nanoTime() - start;
+			if (round >= WARMUP_ROUNDS)
+				System.out.printf("round %2d: %6.1f ns/field (checksum %d)%n",
+						round - WARMUP_ROUNDS, (double) elapsed / (READS_PER_ROUND * numrecs * 2), check);
+		}
+		rp.close();
+		rf.close();
+		tx.commit();
+	}
+}
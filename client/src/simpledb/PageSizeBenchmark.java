@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import simpledb.file.Page;
+import simpledb.index.Index;
+import simpledb.metadata.IndexInfo;
+import simpledb.planner.Planner;
+import simpledb.query.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+/* Measures table-scan and index-lookup throughput for each of
+ * the supported page sizes.
+ *
+ * Because the SimpleDB classes hold their state in static
+ * variables, each page size is measured in its own JVM:
+ * run without arguments, the program starts one child process
+ * per page size and prints its results.
+ * Each child builds a fresh database named "pagesizebench" followed
+ * by the page size in the user's home directory, so it can
+ * be run without the server.
+ */
+
+public class PageSizeBenchmark {
+	private static final int[] PAGE_SIZES = {4096, 8192, 16384, 32768};
+	private static final int NUM_RECORDS = 10000;
+	private static final int NUM_SCANS = 20;
+	private static final int NUM_LOOKUPS = 5000;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			for (int pagesize : PAGE_SIZES)
+				runChild(pagesize);
+		}
+		else
+			measure(Integer.parseInt(args[0]));
+	}
+
+	private static void runChild(int pagesize) throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder pb = new ProcessBuilder(java,
+				"-Duser.home=" + System.getProperty("user.home"),
+				"-cp", System.getProperty("java.class.path"),
+				PageSizeBenchmark.class.getName(), Integer.toString(pagesize));
+		pb.redirectErrorStream(true);
+		Process p = pb.start();
+		BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
+		String line;
+		while ((line = in.readLine()) != null)
+			if (line.startsWith("pagesize"))
+				System.out.println(line);
+		p.waitFor();
+	}
+
+	private static void measure(int pagesize) {
+		String dbname = "pagesizebench" + pagesize;
+		ScratchDatabase.delete(dbname);
+		SimpleDB.PAGE_SIZE = pagesize;
+		SimpleDB.init(dbname);
+		Planner planner = SimpleDB.planner();
+
+		Transaction tx = new Transaction();
+		planner.executeUpdate("create table BENCH(a int, b varchar(20))", tx);
+		planner.executeUpdate("create index benchidx on BENCH(a)", tx);
+		for (int i=0; i<NUM_RECORDS; i++)
+			planner.executeUpdate("insert into BENCH(a, b) values (" + i + ", 'rec" + i + "')", tx);
+		tx.commit();
+
+		tx = new Transaction();
+		Plan p = new TablePlan("bench", tx);
+		long start = System.nanoTime();
+		long count = 0;
+		for (int i=0; i<NUM_SCANS; i++) {
+			Scan s = p.open();
+			while (s.next()) {
+				s.getInt("a");
+				count++;
+			}
+			s.close();
+		}
+		double scansecs = (System.nanoTime() - start) / 1e9;
+
+		IndexInfo ii = SimpleDB.mdMgr().getIndexInfo("bench", tx).get("a");
+		Index idx = ii.open();
+		Random rand = new Random(1);
+		start = System.nanoTime();
+		for (int i=0; i<NUM_LOOKUPS; i++) {
+			idx.beforeFirst(new IntConstant(rand.nextInt(NUM_RECORDS)));
+			while (idx.next())
+				idx.getDataRid();
+		}
+		double lookupsecs = (System.nanoTime() - start) / 1e9;
+		idx.close();
+		tx.commit();
+
+		System.out.printf("pagesize %6d (%d bytes): scan %10.0f records/sec, index %8.0f lookups/sec%n",
+				pagesize, Page.BLOCK_SIZE, count / scansecs, NUM_LOOKUPS / lookupsecs);
+	}
+}
@@ -0,0 +1,74 @@
+package simpledb;
+
+import simpledb.buffer.*;
+import simpledb.file.*;
+import simpledb.planner.Planner;
+import simpledb.query.Plan;
+import simpledb.query.Scan;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+/* Checks that a large scan leaves the rest of the buffer pool alone,
+ * with the default pool and ring sizes.
+ *
+ * The program makes a few "hot" blocks resident, scans a table
+ * many times larger than the pool, and then pins the hot blocks
+ * again, counting how many of them had to be read back.
+ * The scan pins and reads ahead its blocks through a buffer ring,
+ * which must be small enough relative to the pool that its own
+ * buffers can be reused; otherwise the scan replaces the hot blocks.
+ * The program fails if any hot block had to be read back.
+ *
+ * The program builds a fresh database named "scanringtest" in the
+ * user's home directory, so it can be run without the server.
+ */
+
+public class ScanRingTest {
+	private static final int HOT_BLOCKS = 6;
+	private static final int NUM_RECORDS = 5000;
+
+	public static void main(String[] args) {
+		String dbname = "scanringtest";
+		ScratchDatabase.delete(dbname);
+		SimpleDB.init(dbname);
+		Planner planner = SimpleDB.planner();
+		Transaction tx = new Transaction();
+		planner.executeUpdate("create table big (a int, b varchar(40))", tx);
+		for (int i=0; i<NUM_RECORDS; i++)
+			planner.executeUpdate("insert into big(a,b) values (" + i + ", 'record " + i + "')", tx);
+		for (int i=0; i<HOT_BLOCKS; i++)
+			tx.append("hot.tbl", new PageFormatter() {
+				public void format(Page p) {
+					p.setInt(0, 0);
+				}
+			});
+		tx.commit();
+
+		BufferMgr bm = SimpleDB.bufferMgr();
+		tx = new Transaction();
+		Plan p = planner.createQueryPlan("select a from big", tx);
+		for (int i=0; i<HOT_BLOCKS; i++) {
+			Block blk = new Block("hot.tbl", i);
+			tx.pin(blk);
+			tx.unpin(blk);
+		}
+		int count = 0;
+		Scan s = p.open();
+		while (s.next())
+			count++;
+		s.close();
+
+		long misses = bm.misses();
+		for (int i=0; i<HOT_BLOCKS; i++) {
+			Block blk = new Block("hot.tbl", i);
+			tx.pin(blk);
+			tx.unpin(blk);
+		}
+		int resident = HOT_BLOCKS - (int) (bm.misses() - misses);
+		tx.commit();
+		System.out.printf("scanned %d records in a pool of %d buffers: %d of %d hot blocks resident%n",
+				count, bm.size(), resident, HOT_BLOCKS);
+		if (count != NUM_RECORDS || resident != HOT_BLOCKS)
+			throw new RuntimeException("the scan replaced the pool's other blocks");
+	}
+}
@@ -0,0 +1,22 @@
+package simpledb;
+
+import java.io.File;
+
+/* Deletes a database that a benchmark or test program builds
+ * in the user's home directory, so that each run starts
+ * from an empty database.
+ * A database directory holds only files, so they are
+ * deleted before the directory itself.
+ */
+
+public class ScratchDatabase {
+	public static void delete(String dbname) {
+		File dir = new File(System.getProperty("user.home"), dbname);
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		for (File f : files)
+			f.delete();
+		dir.delete();
+	}
+}
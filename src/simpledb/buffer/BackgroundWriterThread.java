@@ -0,0 +1,67 @@
+package simpledb.buffer;
+
+import simpledb.server.SimpleDB;
+
+/**
+ * A background thread that writes dirty pages to disk
+ * before their buffers are replaced, so that a pin
+ * seldom has to wait for the write of another
+ * transaction's modifications.
+ * Every {@link SimpleDB#BG_WRITER_DELAY} milliseconds, the thread
+ * asks each stripe for the dirty buffers among those that will
+ * be replaced next, enough to keep {@link SimpleDB#BG_WRITER_PERCENT}
+ * percent of the unpinned buffers clean, and writes them.
+ * The writes are throttled to at most {@link SimpleDB#BG_WRITER_MAX_PAGES}
+ * pages per round, and are done without holding any stripe's lock.
+ * As for any other write of a buffer, the log is first flushed
+ * up to the page's LSN.
+ * The written pages are not forced to disk, and need not be:
+ * a commit forces only the log, and a page that is lost in a crash
+ * is redone from the log.
+ * Data pages are written only by this thread, by the replacement
+ * of their buffers, and by a checkpoint, which also forces them.
+ * Checkpoints are written at startup and, unless
+ * {@link SimpleDB#CHECKPOINT_INTERVAL} is zero, periodically
+ * by {@link simpledb.tx.recovery.CheckpointMgr};
+ * without them, recovery would redo the whole log
+ * written since the last restart.
+ */
+class BackgroundWriterThread extends Thread {
+   private BufferMgr bufferMgr;
+   private volatile long written = 0;
+
+   /**
+    * Creates a daemon background writer for the
+    * specified buffer pool.
+    * @param bufferMgr the buffer manager
+    */
+   BackgroundWriterThread(BufferMgr bufferMgr) {
+      super("simpledb-bgwriter");
+      this.bufferMgr = bufferMgr;
+      setDaemon(true);
+   }
+
+   /**
+    * Returns the number of pages that the thread has written.
+    * @return the number of pages written
+    */
+   long written() {
+      return written;
+   }
+
+   public void run() {
+      try {
+         while (true) {
+            Thread.sleep(SimpleDB.BG_WRITER_DELAY);
+            try {
+               written += bufferMgr.writeDirty(SimpleDB.BG_WRITER_PERCENT,
+                                               SimpleDB.BG_WRITER_MAX_PAGES);
+            }
+            catch (RuntimeException e) {
+               // the page is left for its replacement or a checkpoint to write
+            }
+         }
+      }
+      catch (InterruptedException e) {}
+   }
+}
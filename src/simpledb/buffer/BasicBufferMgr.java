@@ -1,15 +1,63 @@
 package simpledb.buffer;
 
 import simpledb.file.*;
+import java.util.*;
 
 /**
  * Manages the pinning and unpinning of buffers to blocks.
+ * The buffer for a block is found through a page table,
+ * which maps each block in the pool to its buffer.
+ * A buffer to replace is taken from the free list, which holds
+ * buffers that have never been assigned (or whose block was discarded);
+ * if it is empty, the {@link ReplacementPolicy} chooses one;
+ * and only if every other buffer is pinned is a buffer chosen
+ * from the read-ahead list, which holds buffers whose
+ * read-ahead block has not been pinned yet.
+ * A buffer whose read-ahead block is still being read is in flight:
+ * it is in none of these lists and not in the page table,
+ * so that the stripe need not be locked during the read.
+ * If its block is brought into the pool some other way
+ * in the meantime, the buffer is freed when the read is done,
+ * instead of replacing the newer page.
+ * The policy is chosen by name when the pool is created.
+ * The buffer manager counts the pins that find their
+ * block in the pool (hits) and those that do not (misses).
+ * <p>
+ * A large scan may pin its blocks through a {@link BufferRing},
+ * in which case a block that is not in the pool replaces
+ * the oldest buffer of the ring (if it can be reused)
+ * instead of a buffer chosen as above.
+ * A buffer holding a block that was read through a ring
+ * is not known to the policy; when it is unpinned, it goes
+ * to the cold list, from which buffers are replaced
+ * before the policy is asked.
+ * Thus the rings of earlier scans are used up first.
+ * Only when the block is pinned without a ring,
+ * which means that it is of use to someone else,
+ * is the buffer handed to the policy.
+ * <p>
+ * The number of buffers can be changed while the buffers are in use.
+ * A buffer that is pinned when the pool shrinks is retired:
+ * it keeps its block until it is unpinned,
+ * and is then written and removed.
+ * The {@link BufferMgr} partitions the pool into stripes,
+ * each of which is a basic buffer manager.
  * @author Edward Sciore
  *
  */
 class BasicBufferMgr {
    private Buffer[] bufferpool;
-   private int numAvailable;
+   private volatile int numAvailable;
+   private Map<Block,Buffer> pageTable;
+   private Map<Block,Buffer> inFlight = new HashMap<Block,Buffer>();
+   private Deque<Buffer> freeList = new ArrayDeque<Buffer>();
+   private Set<Buffer> readAhead = new LinkedHashSet<Buffer>();
+   private Set<Buffer> scanned = new HashSet<Buffer>();
+   private Set<Buffer> cold = new LinkedHashSet<Buffer>();
+   private Set<Buffer> retiring = new HashSet<Buffer>();
+   private ReplacementPolicy policy;
+   private PageArena frames;
+   private long hits = 0, misses = 0, dirtyReplacements = 0;
    
    /**
     * Creates a buffer manager having the specified number 
@@ -22,13 +70,22 @@ class BasicBufferMgr {
     * Thus this constructor cannot be called until 
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
+    * The pages of the buffers are allocated from the specified arena,
+    * to which they are released when buffers are removed.
     * @param numbuffs the number of buffer slots to allocate
+    * @param policyname the name of the replacement policy
+    * @param frames the arena holding the pages of the pool
     */
-   BasicBufferMgr(int numbuffs) {
+   BasicBufferMgr(int numbuffs, String policyname, PageArena frames) {
+      this.frames = frames;
       bufferpool = new Buffer[numbuffs];
       numAvailable = numbuffs;
-      for (int i=0; i<numbuffs; i++)
-         bufferpool[i] = new Buffer();
+      pageTable = new HashMap<Block,Buffer>(numbuffs * 2);
+      for (int i=0; i<numbuffs; i++) {
+         bufferpool[i] = new Buffer(frames.allocate());
+         freeList.add(bufferpool[i]);
+      }
+      policy = newPolicy(policyname);
    }
    
    /**
@@ -41,6 +98,27 @@ class BasicBufferMgr {
          buff.flush();
    }
    
+   /**
+    * Flushes every dirty buffer.
+    */
+   synchronized void flushAll() {
+      for (Buffer buff : bufferpool)
+         buff.flush();
+   }
+   
+   /**
+    * Flushes the buffer holding the specified block,
+    * if the block is in the pool and was
+    * modified by the specified transaction.
+    * @param blk a reference to a disk block
+    * @param txnum the transaction's id number
+    */
+   synchronized void flush(Block blk, int txnum) {
+      Buffer buff = pageTable.get(blk);
+      if (buff != null && buff.isModifiedBy(txnum))
+         buff.flush();
+   }
+   
    /**
     * Pins a buffer to the specified block. 
     * If there is already a buffer assigned to that block
@@ -48,19 +126,50 @@ class BasicBufferMgr {
     * otherwise, an unpinned buffer from the pool is chosen.
     * Returns a null value if there are no available buffers.
     * @param blk a reference to a disk block
+    * @param ring the stripe's part of the scan's ring, or null
     * @return the pinned buffer
     */
-   synchronized Buffer pin(Block blk) {
-      Buffer buff = findExistingBuffer(blk);
+   synchronized Buffer pin(Block blk, BufferRing.Slots ring) {
+      Buffer buff = pageTable.get(blk);
+      boolean loaded = false;
       if (buff == null) {
-         buff = chooseUnpinnedBuffer();
+         buff = reuseFromRing(ring);
+         if (buff == null)
+            buff = chooseUnpinnedBuffer();
          if (buff == null)
             return null;
-         buff.assignToBlock(blk);
+         if (buff.isModified())
+            dirtyReplacements++;
+         writeBack(buff);
+         unmap(buff);
+         try {
+            buff.assignToBlock(blk);
+         }
+         catch (RuntimeException e) {
+            freeBuffer(buff);
+            throw e;
+         }
+         map(blk, buff);
+         if (ring != null) {
+            ring.add(buff);
+            scanned.add(buff);
+         }
+         loaded = true;
+         misses++;
+      }
+      else {
+         // a read-ahead block is used for the first time
+         loaded = readAhead.remove(buff);
+         cold.remove(buff);
+         hits++;
       }
       if (!buff.isPinned())
          numAvailable--;
       buff.pin();
+      if (ring == null && scanned.remove(buff))
+         loaded = true;  // a scanned block is used by someone else
+      if (!scanned.contains(buff))
+         policy.pinned(buff, loaded);
       return buff;
    }
    
@@ -71,26 +180,249 @@ class BasicBufferMgr {
     * there are no available buffers.
     * @param filename the name of the file
     * @param fmtr a pageformatter object, used to format the new block
+    * @param ring the stripe's part of the scan's ring, or null
     * @return the pinned buffer
     */
-   synchronized Buffer pinNew(String filename, PageFormatter fmtr) {
-      Buffer buff = chooseUnpinnedBuffer();
+   synchronized Buffer pinNew(String filename, PageFormatter fmtr, BufferRing.Slots ring) {
+      Buffer buff = reuseFromRing(ring);
+      if (buff == null)
+         buff = chooseUnpinnedBuffer();
       if (buff == null)
          return null;
-      buff.assignToNew(filename, fmtr);
+      if (buff.isModified())
+         dirtyReplacements++;
+      writeBack(buff);
+      unmap(buff);
+      try {
+         buff.assignToNew(filename, fmtr);
+      }
+      catch (RuntimeException e) {
+         freeBuffer(buff);
+         throw e;
+      }
+      map(buff.block(), buff);
       numAvailable--;
       buff.pin();
+      if (ring != null) {
+         ring.add(buff);
+         scanned.add(buff);
+      }
+      else
+         policy.pinned(buff, true);
       return buff;
    }
    
+   /**
+    * Returns true if the specified block is in the pool,
+    * or is being read into it.
+    * @param blk a reference to a disk block
+    * @return true if a buffer holds the block
+    */
+   synchronized boolean contains(Block blk) {
+      return pageTable.containsKey(blk) || inFlight.containsKey(blk);
+   }
+   
+   /**
+    * Chooses an unpinned buffer to hold the specified read-ahead block,
+    * removes its current block from the pool,
+    * and assigns it to the new block, which is marked as in flight.
+    * Unlike a pin, buffers holding other read-ahead blocks are not used,
+    * and neither are the policy's buffers if there is a ring,
+    * so that a scan's read-ahead does not replace
+    * the blocks that its ring protects.
+    * If the page of the chosen buffer cannot be written,
+    * the buffer keeps its block and no buffer is returned,
+    * since reading ahead is only an optimization.
+    * The caller reads the block with
+    * {@link Buffer#readPrefetched(Block, Buffer[])}
+    * without locking the stripe, and then calls
+    * {@link #readAheadLoaded(Buffer, BufferRing.Slots)} or
+    * {@link #readAheadFailed(Buffer)}.
+    * @param blk a reference to the block to be read
+    * @param ring the stripe's part of the scan's ring, or null
+    * @return the buffer, or null if there is none
+    */
+   synchronized Buffer takeForReadAhead(Block blk, BufferRing.Slots ring) {
+      if (contains(blk))
+         return null;
+      Buffer buff = reuseFromRing(ring);
+      if (buff == null)
+         buff = freeList.poll();
+      if (buff == null)
+         buff = takeCold();
+      if (buff == null && ring == null)
+         buff = policy.chooseVictim();
+      if (buff == null)
+         return null;
+      try {
+         writeBack(buff);
+      }
+      catch (RuntimeException e) {
+         return null;
+      }
+      unmap(buff);
+      buff.assignToPrefetch(blk);
+      inFlight.put(blk, buff);
+      return buff;
+   }
+   
+   /**
+    * Adds a buffer whose read-ahead block has been read to the pool.
+    * If the block was brought into the pool while it was being read,
+    * the buffer is freed instead, since its page may be out of date.
+    * @param buff the buffer
+    * @param ring the stripe's part of the scan's ring, or null
+    */
+   synchronized void readAheadLoaded(Buffer buff, BufferRing.Slots ring) {
+      if (inFlight.get(buff.block()) != buff) {
+         freeBuffer(buff);
+         return;
+      }
+      map(buff.block(), buff);
+      readAhead.add(buff);
+      if (ring != null) {
+         ring.add(buff);
+         scanned.add(buff);
+      }
+   }
+   
+   /**
+    * Returns a buffer whose read-ahead block could not be read
+    * to the free list.
+    * @param buff the buffer
+    */
+   synchronized void readAheadFailed(Buffer buff) {
+      if (inFlight.get(buff.block()) == buff)
+         inFlight.remove(buff.block());
+      freeBuffer(buff);
+   }
+   
    /**
     * Unpins the specified buffer.
     * @param buff the buffer to be unpinned
     */
    synchronized void unpin(Buffer buff) {
       buff.unpin();
-      if (!buff.isPinned())
-         numAvailable++;
+      if (!buff.isPinned()) {
+         if (retiring.remove(buff)) {
+            try {
+               buff.flush();
+            }
+            catch (RuntimeException e) {
+               release(buff);  // the buffer stays in the pool
+               throw e;
+            }
+            forget(buff);
+            unmap(buff);
+            buff.discard();
+            removeFromPool(Collections.singleton(buff));
+         }
+         else
+            release(buff);
+      }
+   }
+   
+   /**
+    * Unpins a buffer that was just pinned to a new block,
+    * and removes the block from the pool.
+    * The block has already been written to disk.
+    * @param buff the buffer
+    */
+   synchronized void abandon(Buffer buff) {
+      buff.unpin();
+      numAvailable++;
+      forget(buff);
+      unmap(buff);
+      freeBuffer(buff);
+   }
+   
+   /**
+    * Discards the buffer holding the specified block,
+    * if the block is in the stripe and the buffer is unpinned.
+    * A read of the block that is in flight is forgotten,
+    * so that its buffer is freed when the read is done.
+    * @param blk a reference to a disk block
+    */
+   synchronized void discard(Block blk) {
+      inFlight.remove(blk);
+      Buffer buff = pageTable.get(blk);
+      if (buff != null && !buff.isPinned()) {
+         forget(buff);
+         unmap(buff);
+         freeBuffer(buff);
+      }
+   }
+   
+   /**
+    * Returns the blocks in the stripe.
+    * @return a list of the blocks held by the buffers
+    */
+   synchronized List<Block> blocks() {
+      return new ArrayList<Block>(pageTable.keySet());
+   }
+   
+   /**
+    * Changes the number of buffers in the stripe.
+    * When the stripe grows, retired buffers are reinstated
+    * before new buffers are added to the free list.
+    * When it shrinks, unpinned buffers are removed in the order
+    * in which they would be replaced, after their pages are written;
+    * if too few buffers are unpinned, pinned buffers are retired,
+    * and removed when they are unpinned.
+    * @param numbuffs the new number of buffers
+    */
+   synchronized void resize(int numbuffs) {
+      int change = numbuffs - size();
+      if (change > 0) {
+         Iterator<Buffer> iter = retiring.iterator();
+         while (change > 0 && iter.hasNext()) {
+            iter.next();
+            iter.remove();
+            change--;
+         }
+         Buffer[] pool = Arrays.copyOf(bufferpool, bufferpool.length + change);
+         for (int i=bufferpool.length; i<pool.length; i++) {
+            pool[i] = new Buffer(frames.allocate());
+            freeList.add(pool[i]);
+         }
+         bufferpool = pool;
+         numAvailable += change;
+         policy.resized(pool);
+      }
+      else if (change < 0) {
+         List<Buffer> removed = new ArrayList<Buffer>();
+         try {
+            while (removed.size() < -change) {
+               Buffer buff = chooseUnpinnedBuffer();
+               if (buff == null)
+                  break;
+               writeBack(buff);
+               unmap(buff);
+               buff.discard();
+               removed.add(buff);
+               numAvailable--;
+            }
+         }
+         finally {
+            removeFromPool(removed);
+         }
+         change += removed.size();
+         for (Buffer buff : bufferpool) {
+            if (change == 0)
+               break;
+            if (buff.isPinned() && retiring.add(buff))
+               change++;
+         }
+      }
+   }
+   
+   /**
+    * Returns the number of buffers in the stripe,
+    * not counting retired buffers.
+    * @return the number of buffers
+    */
+   synchronized int size() {
+      return bufferpool.length - retiring.size();
    }
    
    /**
@@ -101,19 +433,218 @@ class BasicBufferMgr {
       return numAvailable;
    }
    
-   private Buffer findExistingBuffer(Block blk) {
-      for (Buffer buff : bufferpool) {
-         Block b = buff.block();
-         if (b != null && b.equals(blk))
-            return buff;
-      }
-      return null;
+   /**
+    * Returns the number of pins that found their block in the pool.
+    * @return the number of hits
+    */
+   synchronized long hits() {
+      return hits;
    }
    
+   /**
+    * Returns the number of pins that had to read their block.
+    * @return the number of misses
+    */
+   synchronized long misses() {
+      return misses;
+   }
+
+   /**
+    * Returns the number of pins that had to write
+    * a dirty page before they could replace it.
+    * @return the number of dirty replacements
+    */
+   synchronized long dirtyReplacements() {
+      return dirtyReplacements;
+   }
+
+   /**
+    * Returns the dirty buffers among those that would be
+    * replaced next (cold buffers first, then those that
+    * the replacement policy chooses), so that they can be written
+    * before a pin has to write them.
+    * The buffers considered are the next victims that make up
+    * the specified percentage of the unpinned buffers,
+    * less the free buffers, which are already clean.
+    * Each buffer is returned with the block it holds,
+    * because the buffer may be reassigned before it is written.
+    * @param percent the percentage of unpinned buffers to keep clean
+    * @param max the largest number of buffers to return
+    * @return a map from the dirty buffers to their blocks
+    */
+   synchronized Map<Buffer,Block> dirtyVictims(int percent, int max) {
+      Map<Buffer,Block> dirty = new LinkedHashMap<Buffer,Block>();
+      int window = numAvailable * percent / 100 - freeList.size();
+      if (window <= 0)
+         return dirty;
+      List<Buffer> victims = new ArrayList<Buffer>();
+      for (Buffer buff : cold)
+         if (victims.size() < window)
+            victims.add(buff);
+      victims.addAll(policy.nextVictims(window - victims.size()));
+      for (Buffer buff : victims) {
+         if (dirty.size() >= max)
+            break;
+         if (buff.isModified())
+            dirty.put(buff, buff.block());
+      }
+      return dirty;
+   }
+
+   /**
+    * Chooses an unpinned buffer to replace.
+    * Free buffers are used first; then cold buffers;
+    * then the buffer chosen by the replacement policy;
+    * and only then a buffer holding a read-ahead block
+    * that is still waiting to be used.
+    */
    private Buffer chooseUnpinnedBuffer() {
+      Buffer buff = freeList.poll();
+      if (buff == null)
+         buff = takeCold();
+      if (buff == null)
+         buff = policy.chooseVictim();
+      if (buff == null) {
+         Iterator<Buffer> iter = readAhead.iterator();
+         if (!iter.hasNext())
+            return null;
+         buff = iter.next();
+         iter.remove();
+         scanned.remove(buff);
+      }
+      return buff;
+   }
+
+   /**
+    * Makes a buffer whose pin count has dropped to zero
+    * available for replacement.
+    */
+   private void release(Buffer buff) {
+      numAvailable++;
+      if (scanned.contains(buff))
+         cold.add(buff);
+      else
+         policy.unpinned(buff);
+   }
+
+   /**
+    * Takes the oldest buffer of a full ring, if it can be reused.
+    * It can be reused if it is cold: it is unpinned,
+    * its block has been used, and only through a ring.
+    */
+   private Buffer reuseFromRing(BufferRing.Slots ring) {
+      if (ring == null)
+         return null;
+      Buffer buff = ring.takeOldest();
+      if (buff == null || !cold.remove(buff))
+         return null;
+      scanned.remove(buff);
+      return buff;
+   }
+
+   /**
+    * Takes the oldest cold buffer, if there is one.
+    */
+   private Buffer takeCold() {
+      Iterator<Buffer> iter = cold.iterator();
+      if (!iter.hasNext())
+         return null;
+      Buffer buff = iter.next();
+      iter.remove();
+      scanned.remove(buff);
+      return buff;
+   }
+
+   /**
+    * Forgets an unpinned buffer whose block
+    * is removed from the pool without replacing it.
+    */
+   private void forget(Buffer buff) {
+      boolean prefetched = readAhead.remove(buff);
+      cold.remove(buff);
+      if (!scanned.remove(buff) && !prefetched)
+         policy.removed(buff);
+   }
+
+   /**
+    * Creates the replacement policy having the specified name,
+    * which is one of "lru", "clock", "lru2" and "2q".
+    */
+   private ReplacementPolicy newPolicy(String name) {
+      if (name.equalsIgnoreCase("lru"))
+         return new LRUPolicy();
+      else if (name.equalsIgnoreCase("clock"))
+         return new ClockPolicy(bufferpool);
+      else if (name.equalsIgnoreCase("lru2"))
+         return new LRUKPolicy(bufferpool.length);
+      else if (name.equalsIgnoreCase("2q"))
+         return new TwoQueuePolicy(bufferpool.length);
+      else
+         throw new RuntimeException("unknown replacement policy " + name);
+   }
+
+   /**
+    * Removes buffers that have been detached from their blocks
+    * from the pool, and releases their pages to the arena.
+    */
+   private void removeFromPool(Collection<Buffer> buffs) {
+      if (buffs.isEmpty())
+         return;
+      for (Buffer buff : buffs)
+         frames.release(buff.contents());
+      Set<Buffer> gone = new HashSet<Buffer>(buffs);
+      List<Buffer> rest = new ArrayList<Buffer>();
       for (Buffer buff : bufferpool)
-         if (!buff.isPinned())
-         return buff;
-      return null;
+         if (!gone.contains(buff))
+            rest.add(buff);
+      bufferpool = rest.toArray(new Buffer[rest.size()]);
+      policy.resized(bufferpool);
+   }
+
+   /**
+    * Writes the page of a buffer chosen for replacement,
+    * while the buffer still holds its block.
+    * If the write fails, the buffer stays dirty and in the page table,
+    * and is handed back to the replacement policy
+    * as if its block had just been read,
+    * so that the page is written again later instead of being lost.
+    */
+   private void writeBack(Buffer buff) {
+      try {
+         buff.flush();
+      }
+      catch (RuntimeException e) {
+         policy.pinned(buff, true);
+         policy.unpinned(buff);
+         throw e;
+      }
+   }
+
+   /**
+    * Adds a block and its buffer to the page table.
+    * A read of the block that is in flight
+    * no longer matters, since its page would be out of date.
+    */
+   private void map(Block blk, Buffer buff) {
+      inFlight.remove(blk);
+      pageTable.put(blk, buff);
+   }
+
+   /**
+    * Removes the buffer's current block from the page table.
+    */
+   private void unmap(Buffer buff) {
+      Block b = buff.block();
+      if (b != null)
+         pageTable.remove(b);
+   }
+
+   /**
+    * Detaches an unmapped buffer from its block
+    * and puts it on the free list.
+    */
+   private void freeBuffer(Buffer buff) {
+      buff.discard();
+      freeList.add(buff);
    }
 }
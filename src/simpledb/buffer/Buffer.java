@@ -11,14 +11,18 @@ import simpledb.file.*;
  * whether the contents of the page have been modified,
  * and if so, the id of the modifying transaction and
  * the LSN of the corresponding log record.
+ * Modifying, writing, and reassigning the page are synchronized
+ * on the buffer, so that a page written by the background writer
+ * cannot lose a modification made during the write.
  * @author Edward Sciore
  */
 public class Buffer {
-   private Page contents = new Page();
+   private Page contents;
    private Block blk = null;
    private int pins = 0;
    private int modifiedBy = -1;  // negative means not modified
-   private int logSequenceNumber = -1; // negative means no corresponding log record
+   private long logSequenceNumber = -1; // negative means no corresponding log record
+   private boolean prefetched = false;
 
    /**
     * Creates a new buffer, wrapping a new 
@@ -34,7 +38,19 @@ public class Buffer {
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
     */
-   public Buffer() {}
+   public Buffer() {
+      this(new Page());
+   }
+   
+   /**
+    * Creates a new buffer, wrapping the specified page.
+    * The buffer manager allocates the pages of its buffers
+    * from a {@link PageArena}.
+    * @param contents the buffer's page
+    */
+   Buffer(Page contents) {
+      this.contents = contents;
+   }
    
    /**
     * Returns the integer value at the specified offset of the
@@ -74,7 +90,7 @@ public class Buffer {
     * @param txnum the id of the transaction performing the modification
     * @param lsn the LSN of the corresponding log record
     */
-   public void setInt(int offset, int val, int txnum, int lsn) {
+   public synchronized void setInt(int offset, int val, int txnum, long lsn) {
       modifiedBy = txnum;
       if (lsn >= 0)
 	      logSequenceNumber = lsn;
@@ -95,7 +111,7 @@ public class Buffer {
     * @param txnum the id of the transaction performing the modification
     * @param lsn the LSN of the corresponding log record
     */
-   public void setString(int offset, String val, int txnum, int lsn) {
+   public synchronized void setString(int offset, String val, int txnum, long lsn) {
       modifiedBy = txnum;
       if (lsn >= 0)
 	      logSequenceNumber = lsn;
@@ -118,7 +134,7 @@ public class Buffer {
     * record has been written to disk prior to writing
     * the page to disk.
     */
-   void flush() {
+   synchronized void flush() {
       if (modifiedBy >= 0) {
          SimpleDB.logMgr().flush(logSequenceNumber);
          contents.write(blk);
@@ -126,11 +142,29 @@ public class Buffer {
       }
    }
 
+   /**
+    * Writes the page to disk if the buffer still holds
+    * the specified block and the page is dirty.
+    * This method is called by the background writer,
+    * which does not pin the buffer;
+    * a buffer that has meanwhile been assigned to
+    * another block is left alone.
+    * @param b the block that the buffer held when it was chosen
+    * @return true if the page was written
+    */
+   synchronized boolean writeIfModified(Block b) {
+      if (!b.equals(blk) || modifiedBy < 0)
+         return false;
+      flush();
+      return true;
+   }
+
    /**
     * Increases the buffer's pin count.
     */
    void pin() {
       pins++;
+      prefetched = false;
    }
 
    /**
@@ -159,6 +193,55 @@ public class Buffer {
       return txnum == modifiedBy;
    }
 
+   /**
+    * Returns true if the buffer is dirty.
+    * @return true if some transaction modified the buffer
+    */
+   boolean isModified() {
+      return modifiedBy >= 0;
+   }
+
+   /**
+    * Returns true if the buffer holds a block that
+    * was read ahead of time, and has not been pinned since.
+    * @return true if the buffer holds an unused read-ahead block
+    */
+   boolean isPrefetched() {
+      return prefetched;
+   }
+
+   /**
+    * Assigns the buffer to a block that is about to be read
+    * ahead of time, without reading it.
+    * If the buffer was dirty, then the contents
+    * of the previous page are first written to disk.
+    * The page is read later by {@link #readPrefetched(Block, Buffer[])}.
+    * @param b a reference to the block
+    */
+   synchronized void assignToPrefetch(Block b) {
+      flush();
+      blk = b;
+      pins = 0;
+      prefetched = true;
+   }
+
+   /**
+    * Reads the contents of consecutive blocks into the
+    * specified buffers, with a single disk access,
+    * in anticipation of later pins.
+    * Each buffer must have been assigned to its block by
+    * {@link #assignToPrefetch(Block)}, and must not be
+    * reachable by other threads until the read is done.
+    * @param first a reference to the first block
+    * @param buffs the buffers, one per block
+    */
+   static void readPrefetched(Block first, Buffer[] buffs) {
+      Page[] pages = new Page[buffs.length];
+      for (int i=0; i<buffs.length; i++)
+         pages[i] = buffs[i].contents;
+      Page.read(first, pages);
+   }
+
    /**
     * Reads the contents of the specified block into
     * the buffer's page.
@@ -166,11 +249,23 @@ public class Buffer {
     * of the previous page are first written to disk.
     * @param b a reference to the data block
     */
-   void assignToBlock(Block b) {
+   synchronized void assignToBlock(Block b) {
       flush();
       blk = b;
       contents.read(blk);
       pins = 0;
+      prefetched = false;
+   }
+
+   /**
+    * Detaches the buffer from its block without writing
+    * the page to disk, even if it is dirty.
+    */
+   synchronized void discard() {
+      blk = null;
+      modifiedBy = -1;
+      logSequenceNumber = -1;
+      prefetched = false;
    }
 
    /**
@@ -181,10 +276,20 @@ public class Buffer {
     * @param filename the name of the file
     * @param fmtr a page formatter, used to initialize the page
     */
-   void assignToNew(String filename, PageFormatter fmtr) {
+   synchronized void assignToNew(String filename, PageFormatter fmtr) {
       flush();
       fmtr.format(contents);
       blk = contents.append(filename);
       pins = 0;
+      prefetched = false;
+   }
+
+   /**
+    * Returns the buffer's page, so that its frame
+    * can be released when the buffer leaves the pool.
+    * @return the buffer's page
+    */
+   Page contents() {
+      return contents;
    }
 }
\ No newline at end of file
@@ -1,6 +1,8 @@
 package simpledb.buffer;
 
+import simpledb.server.SimpleDB;
 import simpledb.file.*;
+import java.util.*;
 
 /**
  * The publicly-accessible buffer manager.
@@ -16,11 +18,52 @@ import simpledb.file.*;
  * If a thread has been waiting for a buffer for an
  * excessive amount of time (currently, 10 seconds)
  * then a {@link BufferAbortException} is thrown.
+ * <p>
+ * The pool is partitioned into stripes, each of which is
+ * a basic buffer manager with its own lock, replacement policy,
+ * and waiting list, so that threads pinning different
+ * blocks seldom contend for the same lock.
+ * Each block belongs to one stripe, determined by its hash;
+ * consecutive blocks of a file belong to consecutive stripes.
+ * The number of stripes is given by {@link SimpleDB#BUFFER_STRIPES};
+ * if that is zero, it is chosen from the number of processors,
+ * such that each stripe has at least {@link #MIN_STRIPE_SIZE} buffers.
+ * <p>
+ * Unless {@link SimpleDB#BG_WRITER_PERCENT} is zero,
+ * a {@link BackgroundWriterThread background writer} cleans
+ * the dirty buffers that are about to be replaced.
+ * <p>
+ * Each method that reads blocks into the pool
+ * has a variant that takes a {@link BufferRing},
+ * through which a large scan reuses a few buffers
+ * instead of replacing the whole pool.
+ * <p>
+ * The pages of the buffers are frames of a {@link PageArena},
+ * so that the whole pool takes a single off-heap allocation.
+ * <p>
+ * The pool can be {@link #resize(int) resized} while it is in use,
+ * also through JMX, as the {@link BufferMgrMBean} attribute Size.
+ * <p>
+ * The blocks in the pool can be {@link #saveHotPages() saved}
+ * to a file, and after a restart the pool can be
+ * {@link #warmUp(List) warmed up} by reading them back
+ * in the background.
  * @author Edward Sciore
  */
-public class BufferMgr {
+public class BufferMgr implements BufferMgrMBean {
+   /**
+    * The smallest number of buffers in a stripe, when
+    * the number of stripes is chosen automatically.
+    * A small pool is therefore not partitioned at all.
+    */
+   public static final int MIN_STRIPE_SIZE = 64;
+
    private static final long MAX_TIME = 10000; // 10 seconds
-   private BasicBufferMgr bufferMgr;
+   private BasicBufferMgr[] stripes;
+   private PageArena frames = new PageArena(MIN_STRIPE_SIZE);
+   private ReadAheadThread readAhead;
+   private BackgroundWriterThread writer;
+   private int nextToClean = 0;
    
    /**
     * Creates a new buffer manager having the specified 
@@ -33,10 +76,25 @@ public class BufferMgr {
     * Thus this constructor cannot be called until 
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
+    * The buffers are replaced according to the policy
+    * named by {@link SimpleDB#BUFFER_POLICY}.
     * @param numbuffers the number of buffer slots to allocate
     */
    public BufferMgr(int numbuffers) {
-      bufferMgr = new BasicBufferMgr(numbuffers);
+      int numstripes = numStripes(numbuffers);
+      frames.reserve(numbuffers);
+      stripes = new BasicBufferMgr[numstripes];
+      for (int i=0; i<numstripes; i++) {
+         // spread the remainder over the first stripes
+         int size = numbuffers / numstripes + (i < numbuffers % numstripes ? 1 : 0);
+         stripes[i] = new BasicBufferMgr(size, SimpleDB.BUFFER_POLICY, frames);
+      }
+      readAhead = new ReadAheadThread(this);
+      readAhead.start();
+      if (SimpleDB.BG_WRITER_PERCENT > 0) {
+         writer = new BackgroundWriterThread(this);
+         writer.start();
+      }
    }
    
    /**
@@ -44,23 +102,47 @@ public class BufferMgr {
     * waiting until a buffer becomes available.
     * If no buffer becomes available within a fixed 
     * time period, then a {@link BufferAbortException} is thrown.
+    * Only the block's stripe is locked, and the thread
+    * waits only for a buffer of that stripe.
     * @param blk a reference to a disk block
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pin(Block blk) {
-      try {
-         long timestamp = System.currentTimeMillis();
-         Buffer buff = bufferMgr.pin(blk);
-         while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = bufferMgr.pin(blk);
+   public Buffer pin(Block blk) {
+      return pin(blk, null);
+   }
+   
+   /**
+    * Pins a buffer to the specified block, as {@link #pin(Block)} does.
+    * If the block is not in the pool, it is read into
+    * the oldest buffer of the specified ring, if possible.
+    * @param blk a reference to a disk block
+    * @param ring the scan's ring, or null to use the whole pool
+    * @return the buffer pinned to that block
+    */
+   public Buffer pin(Block blk, BufferRing ring) {
+      BasicBufferMgr stripe = stripeFor(blk);
+      BufferRing.Slots slots = slots(ring, blk.fileName(), blk.number());
+      if (ring != null)
+         ring.pinned(blk.number());
+      synchronized (stripe) {
+         try {
+            long timestamp = System.currentTimeMillis();
+            Buffer buff = stripe.pin(blk, slots);
+            boolean waited = false;
+            while (buff == null && !waitingTooLong(timestamp)) {
+               stripe.wait(MAX_TIME);
+               waited = true;
+               buff = stripe.pin(blk, slots);
+            }
+            if (buff == null)
+               throw new BufferAbortException();
+            if (waited)
+               passOnWakeup(stripe);
+            return buff;
          }
-         if (buff == null)
+         catch(InterruptedException e) {
             throw new BufferAbortException();
-         return buff;
-      }
-      catch(InterruptedException e) {
-         throw new BufferAbortException();
+         }
       }
    }
    
@@ -69,53 +151,504 @@ public class BufferMgr {
     * potentially waiting until a buffer becomes available.
     * If no buffer becomes available within a fixed 
     * time period, then a {@link BufferAbortException} is thrown.
+    * The new block's stripe is predicted from the current
+    * size of the file, which is exact unless another thread
+    * appends to the file at the same time
+    * (which transactions prevent by locking the end of the file).
+    * If the prediction is wrong, the new block is written out
+    * and pinned again in its proper stripe.
     * @param filename the name of the file
     * @param fmtr the formatter used to initialize the page
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pinNew(String filename, PageFormatter fmtr) {
-      try {
-         long timestamp = System.currentTimeMillis();
-         Buffer buff = bufferMgr.pinNew(filename, fmtr);
-         while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = bufferMgr.pinNew(filename, fmtr);
+   public Buffer pinNew(String filename, PageFormatter fmtr) {
+      return pinNew(filename, fmtr, null);
+   }
+   
+   /**
+    * Pins a buffer to a new block in the specified file,
+    * as {@link #pinNew(String, PageFormatter)} does,
+    * using the oldest buffer of the specified ring, if possible.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the page
+    * @param ring the scan's ring, or null to use the whole pool
+    * @return the buffer pinned to that block
+    */
+   public Buffer pinNew(String filename, PageFormatter fmtr, BufferRing ring) {
+      Block predicted = new Block(filename, SimpleDB.fileMgr().size(filename));
+      BasicBufferMgr stripe = stripeFor(predicted);
+      BufferRing.Slots slots = slots(ring, filename, predicted.number());
+      Buffer buff;
+      synchronized (stripe) {
+         try {
+            long timestamp = System.currentTimeMillis();
+            buff = stripe.pinNew(filename, fmtr, slots);
+            boolean waited = false;
+            while (buff == null && !waitingTooLong(timestamp)) {
+               stripe.wait(MAX_TIME);
+               waited = true;
+               buff = stripe.pinNew(filename, fmtr, slots);
+            }
+            if (buff == null)
+               throw new BufferAbortException();
+            if (stripeFor(buff.block()) == stripe) {
+               if (waited)
+                  passOnWakeup(stripe);
+               return buff;
+            }
+            stripe.abandon(buff);
+            stripe.notify();
          }
-         if (buff == null)
+         catch(InterruptedException e) {
             throw new BufferAbortException();
-         return buff;
-      }
-      catch(InterruptedException e) {
-         throw new BufferAbortException();
+         }
       }
+      return pin(buff.block(), ring);
+   }
+   
+   /**
+    * Asks for the specified consecutive blocks to be read into
+    * unpinned buffers in the background,
+    * in anticipation of later pins.
+    * The method returns immediately.
+    * @param first a reference to the first block
+    * @param count the number of blocks
+    */
+   public void prefetch(Block first, int count) {
+      prefetch(first, count, null);
+   }
+   
+   /**
+    * Asks for the specified consecutive blocks to be read
+    * in the background, into buffers of the specified ring
+    * where possible.
+    * @param first a reference to the first block
+    * @param count the number of blocks
+    * @param ring the scan's ring, or null to use the whole pool
+    */
+   public void prefetch(Block first, int count, BufferRing ring) {
+      readAhead.request(first, count, ring);
+   }
+   
+   /**
+    * Reads the specified consecutive blocks into
+    * unpinned buffers before returning,
+    * because the caller is about to pin them all.
+    * Blocks that are not already in the pool are read
+    * with as few disk accesses as possible,
+    * instead of one access per pin.
+    * @param first a reference to the first block
+    * @param count the number of blocks
+    */
+   public void load(Block first, int count) {
+      readRange(first, count, null);
+   }
+   
+   /**
+    * Reads the specified consecutive blocks before returning,
+    * into buffers of the specified ring where possible.
+    * @param first a reference to the first block
+    * @param count the number of blocks
+    * @param ring the scan's ring, or null to use the whole pool
+    */
+   public void load(Block first, int count, BufferRing ring) {
+      readRange(first, count, ring);
    }
    
    /**
     * Unpins the specified buffer. 
     * If the buffer's pin count becomes 0,
-    * then the threads on the wait list are notified.
+    * then one thread on the stripe's wait list is notified.
+    * A thread that is woken passes the wakeup on
+    * if buffers are still available after its pin,
+    * so a wakeup is not lost when the woken thread
+    * finds its block already in the pool.
     * @param buff the buffer to be unpinned
     */
-   public synchronized void unpin(Buffer buff) {
-      bufferMgr.unpin(buff);
-      if (!buff.isPinned())
-         notifyAll();
+   public void unpin(Buffer buff) {
+      BasicBufferMgr stripe = stripeFor(buff.block());
+      synchronized (stripe) {
+         stripe.unpin(buff);
+         if (!buff.isPinned())
+            stripe.notify();
+      }
    }
    
    /**
-    * Flushes the dirty buffers modified by the specified transaction.
+    * Flushes the dirty buffers modified by the specified transaction,
+    * and forces the written files to disk.
+    * Since pages written earlier (when their buffers were replaced)
+    * may not be on disk yet either, all files having
+    * unforced writes are forced.
     * @param txnum the transaction's id number
     */
    public void flushAll(int txnum) {
-      bufferMgr.flushAll(txnum);
+      for (BasicBufferMgr stripe : stripes)
+         stripe.flushAll(txnum);
+      SimpleDB.fileMgr().forceAll();
+   }
+   
+   /**
+    * Flushes every dirty buffer, whichever transaction modified it,
+    * and forces the written files to disk.
+    * This method is called when a checkpoint is written,
+    * while no transaction is active.
+    */
+   public void flushAll() {
+      for (BasicBufferMgr stripe : stripes)
+         stripe.flushAll();
+      SimpleDB.fileMgr().forceAll();
+   }
+   
+   /**
+    * Flushes the specified blocks, if they were modified by
+    * the specified transaction, and forces the written files to disk.
+    * Unlike {@link #flushAll(int)}, this method does not
+    * examine every buffer in the pool, so its cost depends
+    * on the number of blocks instead of the size of the pool.
+    * The caller must supply every block that the transaction
+    * has modified; blocks that have since been replaced
+    * were written when their buffers were replaced.
+    * @param txnum the transaction's id number
+    * @param blocks the blocks modified by the transaction
+    */
+   public void flush(int txnum, Collection<Block> blocks) {
+      for (Block blk : blocks)
+         stripeFor(blk).flush(blk, txnum);
+      SimpleDB.fileMgr().forceAll();
+   }
+   
+   /**
+    * Discards the unpinned buffers holding blocks of the specified file,
+    * without writing them to disk.
+    * This method is called when a temporary table is dropped,
+    * so that its modified blocks are not written
+    * after its space has been reused.
+    * Each block of the file is looked up in the page table
+    * of its stripe, so the cost depends on the size of the file
+    * instead of the size of the pool.
+    * @param filename the name of the file
+    */
+   public void discard(String filename) {
+      int size = SimpleDB.fileMgr().size(filename);
+      for (int i=0; i<size; i++) {
+         Block blk = new Block(filename, i);
+         stripeFor(blk).discard(blk);
+      }
+   }
+   
+   /**
+    * Returns the number of pins that found their block
+    * already in the pool, including read-ahead blocks.
+    * @return the number of buffer hits
+    */
+   public long hits() {
+      long hits = 0;
+      for (BasicBufferMgr stripe : stripes)
+         hits += stripe.hits();
+      return hits;
+   }
+   
+   /**
+    * Returns the number of pins that had to read their block from disk.
+    * The hit ratio of the replacement policy is
+    * hits / (hits + misses).
+    * @return the number of buffer misses
+    */
+   public long misses() {
+      long misses = 0;
+      for (BasicBufferMgr stripe : stripes)
+         misses += stripe.misses();
+      return misses;
+   }
+   
+   /**
+    * Returns the number of pins that had to write a dirty page
+    * to disk before replacing it.
+    * The background writer exists to keep this number low.
+    * @return the number of dirty replacements
+    */
+   public long dirtyReplacements() {
+      long count = 0;
+      for (BasicBufferMgr stripe : stripes)
+         count += stripe.dirtyReplacements();
+      return count;
+   }
+   
+   /**
+    * Returns the number of pages written by the background writer.
+    * @return the number of background writes
+    */
+   public long backgroundWrites() {
+      return (writer == null) ? 0 : writer.written();
    }
    
    /**
     * Returns the number of available (ie unpinned) buffers.
+    * The stripes are not locked, so the value is only
+    * a snapshot while other threads are pinning buffers.
     * @return the number of available buffers
     */
    public int available() {
-      return bufferMgr.available();
+      int available = 0;
+      for (BasicBufferMgr stripe : stripes)
+         available += stripe.available();
+      return available;
+   }
+   
+   /**
+    * Creates a ring of the specified number of buffers,
+    * for a scan to pin its blocks through.
+    * The ring is smaller if the pool is small;
+    * see {@link BufferRing}.
+    * @param size the number of buffers in the ring
+    * @return the new ring
+    */
+   public BufferRing newRing(int size) {
+      int[] stripesizes = new int[stripes.length];
+      for (int i=0; i<stripes.length; i++)
+         stripesizes[i] = stripes[i].size();
+      return new BufferRing(size, stripesizes);
+   }
+   
+   /**
+    * Returns the number of buffers in the pool.
+    * @return the size of the pool
+    */
+   public int size() {
+      int size = 0;
+      for (BasicBufferMgr stripe : stripes)
+         size += stripe.size();
+      return size;
+   }
+   
+   /**
+    * Changes the number of buffers in the pool, without
+    * disturbing the buffers that are pinned.
+    * The number of stripes stays the same, and the buffers
+    * are spread over them as when the pool was created.
+    * New buffers are available immediately.
+    * Buffers to be removed are taken from the unpinned buffers
+    * in the order in which they would be replaced, and their
+    * pages are written first; if a stripe has too few
+    * unpinned buffers, pinned buffers are removed
+    * when they are unpinned.
+    * Either way, {@link #size()} and {@link #available()}
+    * reflect the new size when this method returns.
+    * The pages of removed buffers return to the pool's arena,
+    * and are used again when the pool grows.
+    * @param numbuffers the new number of buffers
+    */
+   public void resize(int numbuffers) {
+      if (numbuffers < stripes.length)
+         throw new RuntimeException("a pool of " + stripes.length
+                                    + " stripes needs at least as many buffers");
+      frames.reserve(numbuffers - size());
+      for (int i=0; i<stripes.length; i++) {
+         int size = numbuffers / stripes.length + (i < numbuffers % stripes.length ? 1 : 0);
+         BasicBufferMgr stripe = stripes[i];
+         synchronized (stripe) {
+            stripe.resize(size);
+            stripe.notifyAll();
+         }
+      }
+   }
+   
+   /**
+    * Records the blocks that are in the pool
+    * in the file manager's hot-page file,
+    * replacing the blocks recorded earlier.
+    */
+   public void saveHotPages() {
+      List<Block> blocks = new ArrayList<Block>();
+      for (BasicBufferMgr stripe : stripes)
+         blocks.addAll(stripe.blocks());
+      SimpleDB.fileMgr().writeHotPages(blocks);
+   }
+   
+   /**
+    * Reads the specified blocks into the pool in the background,
+    * in file and block order, without pinning them.
+    * The method returns immediately.
+    * @param blocks the blocks to read
+    * @see WarmUpThread
+    */
+   public void warmUp(List<Block> blocks) {
+      if (!blocks.isEmpty())
+         new WarmUpThread(this, blocks).start();
+   }
+   
+   /**
+    * Returns the number of stripes in the pool.
+    * @return the number of stripes
+    */
+   public int stripes() {
+      return stripes.length;
+   }
+   
+   public int getSize() {
+      return size();
+   }
+   
+   public void setSize(int numbuffers) {
+      resize(numbuffers);
+   }
+   
+   public int getAvailable() {
+      return available();
+   }
+   
+   public int getStripes() {
+      return stripes();
+   }
+   
+   public long getHits() {
+      return hits();
+   }
+   
+   public long getMisses() {
+      return misses();
+   }
+   
+   public long getDirtyReplacements() {
+      return dirtyReplacements();
+   }
+   
+   public long getBackgroundWrites() {
+      return backgroundWrites();
+   }
+   
+   /**
+    * Reads the specified consecutive blocks into unpinned buffers,
+    * without pinning them, so that later pins
+    * of the blocks do not have to wait for the disk.
+    * Blocks that are already in a buffer are skipped,
+    * and each run of the remaining blocks is read
+    * with a single disk access.
+    * The buffers are chosen as for a pin, except that
+    * buffers holding other read-ahead blocks are not used;
+    * the method stops when a stripe has no more such buffers.
+    * Blocks beyond the end of the file are ignored.
+    * The buffers of a run are reserved one stripe at a time,
+    * and each stripe is locked again only to add its buffer
+    * to the pool, so no stripe is locked during the read.
+    * @param first a reference to the first block
+    * @param count the number of blocks
+    * @param ring the scan's ring, or null to use the whole pool
+    */
+   void readRange(Block first, int count, BufferRing ring) {
+      String filename = first.fileName();
+      int start = first.number();
+      int end = Math.min(start + count, SimpleDB.fileMgr().size(filename));
+      int blknum = start;
+      while (blknum < end) {
+         if (stripeFor(filename, blknum).contains(new Block(filename, blknum))) {
+            blknum++;
+            continue;
+         }
+         List<Buffer> buffs = new ArrayList<Buffer>();
+         int runstart = blknum;
+         while (blknum < end) {
+            Block blk = new Block(filename, blknum);
+            BasicBufferMgr stripe = stripeFor(blk);
+            Buffer buff;
+            synchronized (stripe) {
+               buff = stripe.takeForReadAhead(blk, slots(ring, filename, blknum));
+            }
+            if (buff == null)
+               break;
+            buffs.add(buff);
+            blknum++;
+         }
+         if (buffs.isEmpty())
+            return;
+         try {
+            Buffer.readPrefetched(new Block(filename, runstart),
+                                  buffs.toArray(new Buffer[buffs.size()]));
+         }
+         catch (RuntimeException e) {
+            for (Buffer buff : buffs)
+               publish(buff, false, null);
+            throw e;
+         }
+         for (Buffer buff : buffs)
+            publish(buff, true, ring);
+      }
+   }
+   
+   /**
+    * Adds a buffer whose read-ahead block has been read to its stripe,
+    * or returns it to the stripe's free list if the read failed,
+    * and wakes a thread that may be waiting for the buffer.
+    */
+   private void publish(Buffer buff, boolean loaded, BufferRing ring) {
+      Block blk = buff.block();
+      BasicBufferMgr stripe = stripeFor(blk);
+      synchronized (stripe) {
+         if (loaded)
+            stripe.readAheadLoaded(buff, slots(ring, blk.fileName(), blk.number()));
+         else
+            stripe.readAheadFailed(buff);
+         stripe.notify();
+      }
+   }
+   
+   /**
+    * Writes the dirty buffers that each stripe will replace next,
+    * as chosen by {@link BasicBufferMgr#dirtyVictims(int, int)}.
+    * The pages are written without locking the stripes,
+    * so pins can proceed during the writes.
+    * The pages are shared evenly among the stripes,
+    * starting from a different stripe each time.
+    * @param percent the percentage of unpinned buffers to keep clean
+    * @param max the largest number of pages to write
+    * @return the number of pages written
+    */
+   int writeDirty(int percent, int max) {
+      int perstripe = (max + stripes.length - 1) / stripes.length;
+      int written = 0;
+      for (int i=0; i<stripes.length && written<max; i++) {
+         BasicBufferMgr stripe = stripes[(nextToClean + i) % stripes.length];
+         int limit = Math.min(perstripe, max - written);
+         for (Map.Entry<Buffer,Block> e : stripe.dirtyVictims(percent, limit).entrySet())
+            if (e.getKey().writeIfModified(e.getValue()))
+               written++;
+      }
+      nextToClean = (nextToClean + 1) % stripes.length;
+      return written;
+   }
+   
+   private BasicBufferMgr stripeFor(Block blk) {
+      return stripes[stripeId(blk.fileName(), blk.number())];
+   }
+   
+   private BasicBufferMgr stripeFor(String filename, int blknum) {
+      return stripes[stripeId(filename, blknum)];
+   }
+   
+   private BufferRing.Slots slots(BufferRing ring, String filename, int blknum) {
+      return (ring == null) ? null : ring.slots(stripeId(filename, blknum));
+   }
+   
+   private int stripeId(String filename, int blknum) {
+      return Math.floorMod(filename.hashCode() + blknum, stripes.length);
+   }
+   
+   /**
+    * Wakes another waiting thread if the stripe still has
+    * available buffers after a woken thread's pin.
+    * Called with the stripe locked.
+    */
+   private void passOnWakeup(BasicBufferMgr stripe) {
+      if (stripe.available() > 0)
+         stripe.notify();
+   }
+   
+   private static int numStripes(int numbuffers) {
+      if (SimpleDB.BUFFER_STRIPES > 0)
+         return Math.min(SimpleDB.BUFFER_STRIPES, numbuffers);
+      int cpus = Runtime.getRuntime().availableProcessors();
+      return Math.max(1, Math.min(4 * cpus, numbuffers / MIN_STRIPE_SIZE));
    }
    
    private boolean waitingTooLong(long starttime) {
@@ -0,0 +1,54 @@
+package simpledb.buffer;
+
+/**
+ * The management interface of the {@link BufferMgr},
+ * through which the buffer pool's statistics are published to JMX
+ * and the pool can be resized while the server is running.
+ */
+public interface BufferMgrMBean {
+   /**
+    * @return the number of buffers in the pool
+    */
+   int getSize();
+
+   /**
+    * Resizes the pool, as {@link BufferMgr#resize(int)} does.
+    * @param numbuffers the new number of buffers
+    */
+   void setSize(int numbuffers);
+
+   /**
+    * @return the number of unpinned buffers
+    */
+   int getAvailable();
+
+   /**
+    * @return the number of stripes
+    */
+   int getStripes();
+
+   /**
+    * @return the number of pins that found their block in the pool
+    */
+   long getHits();
+
+   /**
+    * @return the number of pins that had to read their block
+    */
+   long getMisses();
+
+   /**
+    * @return the number of pins that had to write a dirty page first
+    */
+   long getDirtyReplacements();
+
+   /**
+    * @return the number of pages written by the background writer
+    */
+   long getBackgroundWrites();
+
+   /**
+    * Records the blocks in the pool, as {@link BufferMgr#saveHotPages()} does.
+    */
+   void saveHotPages();
+}
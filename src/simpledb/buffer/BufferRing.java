@@ -0,0 +1,121 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * A small ring of buffers that a large scan reuses
+ * for the blocks it reads, instead of letting them replace
+ * the blocks that other transactions are using.
+ * A block pinned through a ring that is not already in the pool
+ * is read into the ring's oldest buffer, once the ring is full;
+ * until then, buffers are taken from the pool as usual
+ * and added to the ring.
+ * The oldest buffer is not reused if it is pinned,
+ * if it holds a read-ahead block that has not been used yet,
+ * or if it has since been assigned to another block;
+ * instead it leaves the ring, and is replaced by a buffer
+ * from the pool.
+ * Blocks that are already in the pool are pinned as usual,
+ * and do not enter the ring.
+ * <p>
+ * The ring is split among the stripes of the pool,
+ * each part being used only with its stripe locked.
+ * A part holds at most a quarter of its stripe's buffers
+ * (but at least one), however large the ring was asked to be,
+ * so that a scan never takes over a small pool.
+ * A ring is obtained from {@link BufferMgr#newRing(int)},
+ * and is simply abandoned when the scan is done.
+ * <p>
+ * The ring also records the last block pinned through it,
+ * so that read-ahead requests that the scan has overtaken
+ * do not read blocks the scan no longer needs.
+ */
+public class BufferRing {
+   /**
+    * The largest part of a stripe's buffers that a ring may hold,
+    * as a divisor of the stripe's size.
+    */
+   static final int MAX_SHARE = 4;
+
+   private Slots[] slots;
+   private volatile int position = -1;
+
+   /**
+    * Creates a ring of the specified size, split evenly among
+    * stripes having the specified numbers of buffers.
+    * @param size the number of buffers asked for
+    * @param stripesizes the number of buffers in each stripe
+    */
+   BufferRing(int size, int[] stripesizes) {
+      int numstripes = stripesizes.length;
+      int perstripe = Math.max(2, (size + numstripes - 1) / numstripes);
+      slots = new Slots[numstripes];
+      for (int i=0; i<numstripes; i++) {
+         int capacity = Math.min(perstripe, Math.max(1, stripesizes[i] / MAX_SHARE));
+         slots[i] = new Slots(capacity);
+      }
+   }
+
+   /**
+    * Returns the part of the ring that belongs to the specified stripe.
+    * @param stripe the id of the stripe
+    * @return the ring's buffers in that stripe
+    */
+   Slots slots(int stripe) {
+      return slots[stripe];
+   }
+
+   /**
+    * Records that the scan has pinned the specified block.
+    * @param blknum the block number
+    */
+   void pinned(int blknum) {
+      position = blknum;
+   }
+
+   /**
+    * Returns the number of the last block pinned through the ring.
+    * @return the block number, or -1 if none
+    */
+   int position() {
+      return position;
+   }
+
+   /**
+    * The buffers of a ring in one stripe, oldest first,
+    * with the block that each was assigned when it entered the ring.
+    */
+   static class Slots {
+      private int capacity;
+      private Deque<Buffer> buffs = new ArrayDeque<Buffer>();
+      private Deque<Block> blocks = new ArrayDeque<Block>();
+
+      Slots(int capacity) {
+         this.capacity = capacity;
+      }
+
+      /**
+       * Removes the oldest buffer from a full ring.
+       * The buffer is returned only if it still holds
+       * the block that it was assigned by the ring.
+       * @return the oldest buffer, or null
+       */
+      Buffer takeOldest() {
+         if (buffs.size() < capacity)
+            return null;
+         Buffer buff = buffs.poll();
+         Block blk = blocks.poll();
+         return blk.equals(buff.block()) ? buff : null;
+      }
+
+      /**
+       * Adds a buffer, which has just been assigned a block, to the ring.
+       * @param buff the buffer
+       */
+      void add(Buffer buff) {
+         buffs.add(buff);
+         blocks.add(buff.block());
+      }
+   }
+}
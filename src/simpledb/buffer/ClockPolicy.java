@@ -0,0 +1,121 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * The clock (second-chance) replacement policy.
+ * Each buffer has a reference bit, which is set when it is pinned.
+ * A clock hand sweeps over the pool; an unpinned buffer whose bit
+ * is set has the bit cleared and is passed over,
+ * and the first unpinned buffer whose bit is clear is replaced.
+ */
+class ClockPolicy implements ReplacementPolicy {
+   private Buffer[] pool;
+   private Map<Buffer,Integer> index = new IdentityHashMap<Buffer,Integer>();
+   private boolean[] referenced;
+   private boolean[] candidate;
+   private int numCandidates = 0;
+   private int hand = 0;
+
+   /**
+    * Creates a clock over the specified buffers.
+    * @param pool the buffer pool
+    */
+   ClockPolicy(Buffer[] pool) {
+      this.pool = pool;
+      referenced = new boolean[pool.length];
+      candidate = new boolean[pool.length];
+      for (int i=0; i<pool.length; i++)
+         index.put(pool[i], i);
+   }
+
+   /**
+    * Rebuilds the clock over the new pool,
+    * keeping the bits of the buffers that remain.
+    */
+   public void resized(Buffer[] newpool) {
+      Map<Buffer,Integer> newindex = new IdentityHashMap<Buffer,Integer>();
+      boolean[] newreferenced = new boolean[newpool.length];
+      boolean[] newcandidate = new boolean[newpool.length];
+      numCandidates = 0;
+      for (int i=0; i<newpool.length; i++) {
+         Integer old = index.get(newpool[i]);
+         if (old != null) {
+            newreferenced[i] = referenced[old];
+            newcandidate[i] = candidate[old];
+            if (newcandidate[i])
+               numCandidates++;
+         }
+         newindex.put(newpool[i], i);
+      }
+      pool = newpool;
+      index = newindex;
+      referenced = newreferenced;
+      candidate = newcandidate;
+      if (hand >= pool.length)
+         hand = 0;
+   }
+
+   public void pinned(Buffer buff, boolean loaded) {
+      int i = index.get(buff);
+      if (candidate[i]) {
+         candidate[i] = false;
+         numCandidates--;
+      }
+      referenced[i] = true;
+   }
+
+   public void unpinned(Buffer buff) {
+      int i = index.get(buff);
+      if (!candidate[i]) {
+         candidate[i] = true;
+         numCandidates++;
+      }
+   }
+
+   public Buffer chooseVictim() {
+      if (numCandidates == 0)
+         return null;
+      // at most two sweeps: the first clears every reference bit
+      while (true) {
+         int i = hand;
+         hand = (hand + 1) % pool.length;
+         if (!candidate[i])
+            continue;
+         if (referenced[i])
+            referenced[i] = false;
+         else {
+            candidate[i] = false;
+            numCandidates--;
+            return pool[i];
+         }
+      }
+   }
+
+   /**
+    * The next victims are the candidates ahead of the hand
+    * whose reference bit is clear, followed by those
+    * whose bit is set, which the hand will clear first.
+    */
+   public List<Buffer> nextVictims(int n) {
+      List<Buffer> victims = new ArrayList<Buffer>();
+      for (int pass=0; pass<2; pass++) {
+         boolean refbit = (pass == 1);
+         for (int k=0; k<pool.length && victims.size()<n; k++) {
+            int i = (hand + k) % pool.length;
+            if (candidate[i] && referenced[i] == refbit)
+               victims.add(pool[i]);
+         }
+      }
+      return victims;
+   }
+
+   public void removed(Buffer buff) {
+      int i = index.get(buff);
+      if (candidate[i]) {
+         candidate[i] = false;
+         numCandidates--;
+      }
+      referenced[i] = false;
+   }
+}
@@ -0,0 +1,118 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * The LRU-2 replacement policy, which is LRU-K with K=2.
+ * The policy remembers the times of the last two pins of each block,
+ * and replaces the unpinned buffer whose second-to-last pin
+ * is the oldest.
+ * A block that has been pinned only once is replaced first
+ * (oldest pin first), so that the blocks of a one-time scan
+ * do not push out blocks that are used repeatedly,
+ * such as the catalog and the upper levels of indexes.
+ * The history of a replaced block is retained for a while,
+ * so that a block that returns to the pool soon
+ * is recognized as being used repeatedly.
+ */
+class LRUKPolicy implements ReplacementPolicy {
+   private long clock = 0;
+   private int nextId = 0;
+   private Map<Buffer,History> histories = new IdentityHashMap<Buffer,History>();
+   private Map<Block,History> retained;
+   private int maxRetained;
+   private TreeSet<History> unpinned = new TreeSet<History>();
+
+   /**
+    * Creates the policy for a pool of the specified size.
+    * The histories of as many replaced blocks
+    * as there are buffers are retained.
+    * @param numbuffs the number of buffers in the pool
+    */
+   LRUKPolicy(int numbuffs) {
+      maxRetained = numbuffs;
+      retained = new LinkedHashMap<Block,History>() {
+         protected boolean removeEldestEntry(Map.Entry<Block,History> e) {
+            return size() > maxRetained;
+         }
+      };
+   }
+
+   public void pinned(Buffer buff, boolean loaded) {
+      History h = histories.get(buff);
+      if (loaded || h == null) {
+         h = retained.remove(buff.block());
+         if (h == null)
+            h = new History(nextId++);
+         h.buff = buff;
+         histories.put(buff, h);
+      }
+      else
+         unpinned.remove(h);
+      h.previous = h.last;
+      h.last = ++clock;
+   }
+
+   public void unpinned(Buffer buff) {
+      unpinned.add(histories.get(buff));
+   }
+
+   public Buffer chooseVictim() {
+      History h = unpinned.pollFirst();
+      if (h == null)
+         return null;
+      Buffer buff = h.buff;
+      histories.remove(buff);
+      h.buff = null;
+      retained.put(buff.block(), h);
+      return buff;
+   }
+
+   public List<Buffer> nextVictims(int n) {
+      List<Buffer> victims = new ArrayList<Buffer>();
+      Iterator<History> iter = unpinned.iterator();
+      while (iter.hasNext() && victims.size() < n)
+         victims.add(iter.next().buff);
+      return victims;
+   }
+
+   public void removed(Buffer buff) {
+      History h = histories.remove(buff);
+      if (h != null)
+         unpinned.remove(h);
+   }
+
+   public void resized(Buffer[] pool) {
+      maxRetained = pool.length;
+      Iterator<Block> iter = retained.keySet().iterator();
+      while (retained.size() > maxRetained) {
+         iter.next();
+         iter.remove();
+      }
+   }
+
+   /**
+    * The pin history of a block.
+    * A time of 0 means that there was no such pin.
+    * Histories are ordered by the time of the second-to-last
+    * pin, then by the time of the last pin.
+    */
+   private static class History implements Comparable<History> {
+      long previous = 0, last = 0;
+      int id;
+      Buffer buff;
+
+      History(int id) {
+         this.id = id;
+      }
+
+      public int compareTo(History h) {
+         if (previous != h.previous)
+            return Long.compare(previous, h.previous);
+         if (last != h.last)
+            return Long.compare(last, h.last);
+         return Integer.compare(id, h.id);
+      }
+   }
+}
@@ -0,0 +1,45 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * The least-recently-used replacement policy.
+ * The unpinned buffers are kept in the order in which
+ * they were unpinned, and the oldest is replaced.
+ */
+class LRUPolicy implements ReplacementPolicy {
+   private Set<Buffer> unpinned = new LinkedHashSet<Buffer>();
+
+   public void pinned(Buffer buff, boolean loaded) {
+      unpinned.remove(buff);
+   }
+
+   public void unpinned(Buffer buff) {
+      unpinned.add(buff);
+   }
+
+   public Buffer chooseVictim() {
+      Iterator<Buffer> iter = unpinned.iterator();
+      if (!iter.hasNext())
+         return null;
+      Buffer buff = iter.next();
+      iter.remove();
+      return buff;
+   }
+
+   public List<Buffer> nextVictims(int n) {
+      List<Buffer> victims = new ArrayList<Buffer>();
+      Iterator<Buffer> iter = unpinned.iterator();
+      while (iter.hasNext() && victims.size() < n)
+         victims.add(iter.next());
+      return victims;
+   }
+
+   public void removed(Buffer buff) {
+      unpinned.remove(buff);
+   }
+
+   public void resized(Buffer[] pool) {
+      // the policy does not depend on the size of the pool
+   }
+}
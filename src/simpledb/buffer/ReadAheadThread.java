@@ -0,0 +1,84 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.concurrent.*;
+
+/**
+ * A background thread that reads blocks into the
+ * buffer pool ahead of the scans that will pin them.
+ * Requests are queued by {@link BufferMgr#prefetch(Block, int)};
+ * the queue is bounded, and requests that do not fit
+ * are dropped, because read-ahead is only a hint.
+ * Each request is for a run of consecutive blocks,
+ * which is read with as few disk accesses as possible.
+ * Blocks beyond the end of their file
+ * are ignored, as are requests whose read fails.
+ * A request made through a {@link BufferRing} is trimmed
+ * to the blocks that its scan has not yet pinned,
+ * because the thread may fall behind the scan.
+ */
+class ReadAheadThread extends Thread {
+   private static final int MAX_REQUESTS = 64;
+   private BlockingQueue<Request> requests = new ArrayBlockingQueue<Request>(MAX_REQUESTS);
+   private BufferMgr bufferMgr;
+
+   /**
+    * Creates a daemon read-ahead thread for the
+    * specified buffer pool.
+    * @param bufferMgr the buffer manager
+    */
+   ReadAheadThread(BufferMgr bufferMgr) {
+      super("simpledb-readahead");
+      this.bufferMgr = bufferMgr;
+      setDaemon(true);
+   }
+
+   /**
+    * Queues a request to read the specified blocks,
+    * unless the queue is full.
+    * @param first a reference to the first block
+    * @param count the number of blocks
+    * @param ring the scan's ring, or null to use the whole pool
+    */
+   void request(Block first, int count, BufferRing ring) {
+      requests.offer(new Request(first, count, ring));
+   }
+
+   public void run() {
+      try {
+         while (true) {
+            Request r = requests.take();
+            Block first = r.first;
+            int count = r.count;
+            if (r.ring != null) {
+               int passed = r.ring.position() + 1 - first.number();
+               if (passed >= count)
+                  continue;
+               if (passed > 0) {
+                  first = new Block(first.fileName(), first.number() + passed);
+                  count -= passed;
+               }
+            }
+            try {
+               bufferMgr.readRange(first, count, r.ring);
+            }
+            catch (RuntimeException e) {
+               // a failed read-ahead is left to the scan's own pin
+            }
+         }
+      }
+      catch (InterruptedException e) {}
+   }
+
+   private static class Request {
+      Block first;
+      int count;
+      BufferRing ring;
+
+      Request(Block first, int count, BufferRing ring) {
+         this.first = first;
+         this.count = count;
+         this.ring = ring;
+      }
+   }
+}
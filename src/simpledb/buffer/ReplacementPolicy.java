@@ -0,0 +1,66 @@
+package simpledb.buffer;
+
+import java.util.List;
+
+/**
+ * The strategy that the {@link BasicBufferMgr} uses to
+ * choose which unpinned buffer to replace.
+ * The buffer manager tells the policy whenever a buffer is
+ * pinned or unpinned, and asks it for a victim when a block
+ * must be read into the pool and no free buffer is left.
+ * The buffers that the policy knows about are those that
+ * have been pinned since their block was assigned;
+ * free buffers and buffers holding read-ahead blocks
+ * that have not been used yet are managed by the buffer manager.
+ * All methods are called while holding the buffer manager's lock.
+ */
+interface ReplacementPolicy {
+   /**
+    * Records that the specified buffer has been pinned.
+    * @param buff the buffer
+    * @param loaded true if this is the first pin since the buffer's
+    * block was assigned, and false if the block was already in use
+    */
+   void pinned(Buffer buff, boolean loaded);
+
+   /**
+    * Records that the pin count of the specified buffer
+    * has dropped to zero, so that it can now be replaced.
+    * @param buff the buffer
+    */
+   void unpinned(Buffer buff);
+
+   /**
+    * Chooses an unpinned buffer to replace, and forgets it.
+    * The buffer still holds its old block when this method returns.
+    * @return the buffer to replace, or null if every buffer is pinned
+    */
+   Buffer chooseVictim();
+
+   /**
+    * Returns unpinned buffers in roughly the order in which
+    * they would be chosen as victims, without forgetting them
+    * or otherwise changing the state of the policy.
+    * The background writer uses this order to clean
+    * the buffers that are about to be replaced.
+    * @param n the largest number of buffers to return
+    * @return at most n unpinned buffers, next victim first
+    */
+   List<Buffer> nextVictims(int n);
+
+   /**
+    * Forgets the specified unpinned buffer, because its block
+    * has been removed from the pool without replacing it.
+    * @param buff the buffer
+    */
+   void removed(Buffer buff);
+
+   /**
+    * Records that buffers have been added to or removed from the pool.
+    * Added buffers are free; removed buffers have
+    * already been forgotten by {@link #removed(Buffer)}
+    * (or were never known to the policy).
+    * @param pool the buffers now in the pool
+    */
+   void resized(Buffer[] pool);
+}
@@ -0,0 +1,128 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * The 2Q replacement policy.
+ * A block read into the pool for the first time enters a FIFO queue
+ * (A1in), which is limited to a quarter of the pool.
+ * When a block is replaced from that queue,
+ * its identity is remembered in a second queue (A1out)
+ * of up to half as many blocks as there are buffers.
+ * A block that is read in again while it is remembered
+ * has proven itself to be used repeatedly,
+ * and enters the main LRU queue (Am).
+ * Thus a one-time scan passes through A1in
+ * without disturbing the blocks in Am.
+ * Pinned buffers stay in their queue, and are skipped
+ * when a victim is chosen.
+ */
+class TwoQueuePolicy implements ReplacementPolicy {
+   private int maxIn, maxOut;
+   private Set<Buffer> in = new LinkedHashSet<Buffer>();
+   private Set<Buffer> main = new LinkedHashSet<Buffer>();
+   private Set<Block> out = new LinkedHashSet<Block>();
+
+   /**
+    * Creates the policy for a pool of the specified size.
+    * @param numbuffs the number of buffers in the pool
+    */
+   TwoQueuePolicy(int numbuffs) {
+      setLimits(numbuffs);
+   }
+
+   public void pinned(Buffer buff, boolean loaded) {
+      if (loaded) {
+         if (out.remove(buff.block()))
+            main.add(buff);
+         else
+            in.add(buff);
+      }
+      else if (main.remove(buff))
+         main.add(buff);
+   }
+
+   public void unpinned(Buffer buff) {
+      // the queues are ordered by pin, not by unpin
+   }
+
+   public Buffer chooseVictim() {
+      if (in.size() > maxIn) {
+         Buffer buff = removeFirstUnpinned(in);
+         if (buff != null) {
+            remember(buff.block());
+            return buff;
+         }
+      }
+      Buffer buff = removeFirstUnpinned(main);
+      if (buff != null)
+         return buff;
+      buff = removeFirstUnpinned(in);
+      if (buff != null)
+         remember(buff.block());
+      return buff;
+   }
+
+   public List<Buffer> nextVictims(int n) {
+      List<Buffer> victims = new ArrayList<Buffer>();
+      if (in.size() > maxIn) {
+         addUnpinned(in, victims, n);
+         addUnpinned(main, victims, n);
+      }
+      else {
+         addUnpinned(main, victims, n);
+         addUnpinned(in, victims, n);
+      }
+      return victims;
+   }
+
+   public void removed(Buffer buff) {
+      if (!in.remove(buff))
+         main.remove(buff);
+   }
+
+   private void addUnpinned(Set<Buffer> queue, List<Buffer> victims, int n) {
+      for (Buffer buff : queue) {
+         if (victims.size() >= n)
+            return;
+         if (!buff.isPinned())
+            victims.add(buff);
+      }
+   }
+
+   public void resized(Buffer[] pool) {
+      setLimits(pool.length);
+      while (out.size() > maxOut) {
+         Iterator<Block> iter = out.iterator();
+         iter.next();
+         iter.remove();
+      }
+   }
+
+   private void setLimits(int numbuffs) {
+      maxIn  = Math.max(1, numbuffs / 4);
+      maxOut = Math.max(1, numbuffs / 2);
+   }
+
+   private Buffer removeFirstUnpinned(Set<Buffer> queue) {
+      Iterator<Buffer> iter = queue.iterator();
+      while (iter.hasNext()) {
+         Buffer buff = iter.next();
+         if (!buff.isPinned()) {
+            iter.remove();
+            return buff;
+         }
+      }
+      return null;
+   }
+
+   private void remember(Block blk) {
+      out.add(blk);
+      if (out.size() > maxOut) {
+         Iterator<Block> iter = out.iterator();
+         iter.next();
+         iter.remove();
+      }
+   }
+}
@@ -0,0 +1,73 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * A background thread that reads a list of blocks into the
+ * buffer pool after a restart, so that the working set of the
+ * previous run is back in the pool before it is asked for.
+ * The blocks are sorted by file and block number,
+ * and each run of consecutive blocks is read
+ * with as few disk accesses as possible.
+ * No more blocks are read than there are available buffers
+ * when the thread starts, so the warm-up does not replace
+ * the blocks that have been pinned since the restart.
+ * Blocks beyond the end of their file (such as those of
+ * temporary tables, which do not survive a restart) are ignored,
+ * as are runs whose read fails.
+ * The thread stops when the list is exhausted.
+ */
+class WarmUpThread extends Thread {
+   /**
+    * The largest number of blocks read at once,
+    * which bounds the number of buffers that are
+    * held back from other threads during a read.
+    */
+   private static final int MAX_RUN = 32;
+
+   private BufferMgr bufferMgr;
+   private List<Block> blocks;
+
+   /**
+    * Creates a daemon thread that reads the specified blocks
+    * into the specified buffer pool.
+    * @param bufferMgr the buffer manager
+    * @param blocks the blocks to read
+    */
+   WarmUpThread(BufferMgr bufferMgr, List<Block> blocks) {
+      super("simpledb-warmup");
+      this.bufferMgr = bufferMgr;
+      this.blocks = new ArrayList<Block>(blocks);
+      setDaemon(true);
+   }
+
+   public void run() {
+      Collections.sort(blocks, new Comparator<Block>() {
+         public int compare(Block b1, Block b2) {
+            int c = b1.fileName().compareTo(b2.fileName());
+            return (c != 0) ? c : Integer.compare(b1.number(), b2.number());
+         }
+      });
+      int remaining = Math.min(blocks.size(), bufferMgr.available());
+      int i = 0;
+      while (i < remaining) {
+         Block first = blocks.get(i);
+         int count = 1;
+         while (i + count < remaining && count < MAX_RUN
+                && isNext(blocks.get(i + count - 1), blocks.get(i + count)))
+            count++;
+         try {
+            bufferMgr.readRange(first, count, null);
+         }
+         catch (RuntimeException e) {
+            // a failed read is left to the block's own pin
+         }
+         i += count;
+      }
+   }
+
+   private boolean isNext(Block b1, Block b2) {
+      return b1.fileName().equals(b2.fileName()) && b2.number() == b1.number() + 1;
+   }
+}
@@ -0,0 +1,93 @@
+package simpledb.file;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the number of file channels that are open at once.
+ * Each {@link DbFile} reports here when it opens its channel.
+ * If too many channels are then open, the least-recently used
+ * channels that are not in use are closed;
+ * a closed channel is reopened when its file is next accessed.
+ * A channel that is in the middle of an operation
+ * is never closed, so the bound can be exceeded temporarily.
+ * <p>
+ * The cache counts the number of channel hits, opens and evictions.
+ * Hits are counted without locking.
+ */
+class ChannelCache {
+   private int capacity;
+   private Set<DbFile> openFiles = new HashSet<DbFile>();
+   private LongAdder hits = new LongAdder();
+   private long opens = 0;
+   private long evictions = 0;
+
+   /**
+    * Creates a cache that allows the specified number of open channels.
+    * @param capacity the maximum number of open channels
+    */
+   ChannelCache(int capacity) {
+      this.capacity = capacity;
+   }
+
+   /**
+    * Records that an already-open channel was used.
+    */
+   void hit() {
+      hits.increment();
+   }
+
+   /**
+    * Records that the specified file opened its channel,
+    * and closes the least-recently used channels
+    * if there are now too many.
+    * The method must not be called while holding
+    * the channel lock of any file.
+    * @param f the file whose channel was opened
+    */
+   synchronized void opened(DbFile f) {
+      opens++;
+      openFiles.add(f);
+      if (openFiles.size() <= capacity)
+         return;
+      List<DbFile> candidates = new ArrayList<DbFile>(openFiles);
+      candidates.remove(f);
+      Collections.sort(candidates, new Comparator<DbFile>() {
+         public int compare(DbFile f1, DbFile f2) {
+            return Long.compare(f1.lastUsed(), f2.lastUsed());
+         }
+      });
+      for (DbFile victim : candidates) {
+         if (openFiles.size() <= capacity)
+            return;
+         if (victim.tryClose()) {
+            openFiles.remove(victim);
+            evictions++;
+         }
+      }
+   }
+
+   /**
+    * Returns the number of times that an open channel was used.
+    * @return the number of hits
+    */
+   long hits() {
+      return hits.sum();
+   }
+
+   /**
+    * Returns the number of times that a channel was opened.
+    * @return the number of opens
+    */
+   synchronized long opens() {
+      return opens;
+   }
+
+   /**
+    * Returns the number of channels that were closed to stay within the bound.
+    * @return the number of evictions
+    */
+   synchronized long evictions() {
+      return evictions;
+   }
+}
@@ -0,0 +1,377 @@
+package simpledb.file;
+
+import static simpledb.file.Page.BLOCK_SIZE;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An open database file, as seen by the {@link FileMgr}.
+ * The object holds the file's channel and caches
+ * its length in blocks, so that the file size can be
+ * determined without a system call.
+ * Reads and writes use positional channel operations,
+ * which are thread-safe and so need no locking.
+ * Only appends are synchronized, and only on this file.
+ * A read of several consecutive blocks uses a single
+ * scatter read; since a channel has no positional scatter read,
+ * these reads set the channel's position, and so are
+ * serialized on this file.
+ * Writes are not synchronous;
+ * they become durable only when the file is {@link #force() forced}.
+ * <p>
+ * The file's logical size (the number of blocks that have
+ * been appended) may be smaller than its physical size.
+ * When an append reaches the physical end of the file,
+ * the file is extended by an extent of zeroed blocks,
+ * whose size doubles with the file up to a maximum.
+ * Thus most appends do not change the length of the file.
+ * Only files whose zeroed blocks are harmless
+ * are given extents larger than one block,
+ * and only while their class is {@link FileClass#TABLE};
+ * when such a file is reopened, its logical size
+ * is its physical size.
+ * An index implementation therefore sets the class of its files
+ * before it appends to them, so that they grow one block at a time.
+ * <p>
+ * The file's channel is opened on demand and may be closed
+ * by the {@link ChannelCache}, which bounds the number of open channels.
+ * Each operation acquires the channel for its duration,
+ * and a channel is never closed while it is in use.
+ */
+class DbFile {
+   private static ByteBuffer zeros = ByteBuffer.allocateDirect(0);
+   private File file;
+   private ChannelCache cache;
+   private int maxextent;
+   private volatile int numblocks;
+   private int physblocks;
+   private volatile boolean grown = false;
+
+   // the channel and its use count are guarded by channelLock
+   private Object channelLock = new Object();
+   private Object positionLock = new Object();
+   private FileChannel fc = null;
+   private int users = 0;
+   private volatile long lastUsed;
+
+   private IOStats stats = new IOStats();
+   private volatile FileClass fileClass = FileClass.TABLE;
+
+   /**
+    * Creates an object for the specified file.
+    * The file itself is created when it is first accessed.
+    * @param f the file
+    * @param maxextent the maximum number of blocks to preallocate at a time
+    * @param cache the cache that bounds the number of open channels
+    */
+   DbFile(File f, int maxextent, ChannelCache cache) {
+      this.file = f;
+      this.maxextent = maxextent;
+      this.cache = cache;
+      numblocks = (int)(f.length() / BLOCK_SIZE);
+      physblocks = numblocks;
+   }
+
+   /**
+    * Reads the specified block of the file into a bytebuffer.
+    * The part of the block beyond the end of the file reads as zeros,
+    * rather than leaving the earlier contents of the bytebuffer.
+    * @param blknum the block number
+    * @param bb the bytebuffer
+    * @throws IOException
+    */
+   void read(int blknum, ByteBuffer bb) throws IOException {
+      FileChannel fc = acquire();
+      try {
+         bb.clear();
+         long pos = (long) blknum * BLOCK_SIZE;
+         int n = 0;
+         while (bb.hasRemaining() && n >= 0)
+            n = fc.read(bb, pos + bb.position());
+         while (bb.hasRemaining())
+            bb.put((byte) 0);
+      }
+      finally {
+         release();
+      }
+   }
+
+   /**
+    * Reads consecutive blocks of the file into bytebuffers,
+    * starting at the specified block, with a single scatter read.
+    * If the file ends before the last block,
+    * the rest of the bytebuffers is zeroed.
+    * @param blknum the number of the first block
+    * @param bbs the bytebuffers, one per block
+    * @throws IOException
+    */
+   void read(int blknum, ByteBuffer[] bbs) throws IOException {
+      FileChannel fc = acquire();
+      try {
+         long remaining = 0;
+         for (ByteBuffer bb : bbs) {
+            bb.clear();
+            remaining += bb.remaining();
+         }
+         synchronized (positionLock) {
+            fc.position((long) blknum * BLOCK_SIZE);
+            while (remaining > 0) {
+               long n = fc.read(bbs);
+               if (n < 0)
+                  break;
+               remaining -= n;
+            }
+         }
+         for (ByteBuffer bb : bbs)
+            while (bb.hasRemaining())
+               bb.put((byte) 0);
+      }
+      finally {
+         release();
+      }
+   }
+
+   /**
+    * Writes the contents of a bytebuffer to the specified block of the file.
+    * @param blknum the block number
+    * @param bb the bytebuffer
+    * @throws IOException
+    */
+   void write(int blknum, ByteBuffer bb) throws IOException {
+      FileChannel fc = acquire();
+      try {
+         bb.rewind();
+         writeFully(fc, bb, (long) blknum * BLOCK_SIZE);
+      }
+      finally {
+         release();
+      }
+      if (blknum >= numblocks)
+         extendTo(blknum + 1);
+   }
+
+   /**
+    * Writes the contents of bytebuffers to consecutive blocks of the file,
+    * starting at the specified block, with a single gather write.
+    * @param blknum the number of the first block
+    * @param bbs the bytebuffers, one per block
+    * @throws IOException
+    */
+   void write(int blknum, ByteBuffer[] bbs) throws IOException {
+      FileChannel fc = acquire();
+      try {
+         long remaining = 0;
+         for (ByteBuffer bb : bbs) {
+            bb.rewind();
+            remaining += bb.remaining();
+         }
+         synchronized (positionLock) {
+            fc.position((long) blknum * BLOCK_SIZE);
+            while (remaining > 0)
+               remaining -= fc.write(bbs);
+         }
+      }
+      finally {
+         release();
+      }
+      if (blknum + bbs.length > numblocks)
+         extendTo(blknum + bbs.length);
+   }
+
+   /**
+    * Writes the contents of a bytebuffer to a new block
+    * at the end of the file.
+    * The cached length is updated only after the block
+    * has been written, so that a concurrent reader never
+    * sees a block that does not yet exist.
+    * @param bb the bytebuffer
+    * @return the number of the new block
+    * @throws IOException
+    */
+   synchronized int append(ByteBuffer bb) throws IOException {
+      FileChannel fc = acquire();
+      try {
+         int blknum = numblocks;
+         if (blknum >= physblocks)
+            preallocate(fc);
+         bb.rewind();
+         writeFully(fc, bb, (long) blknum * BLOCK_SIZE);
+         numblocks = blknum + 1;
+         return blknum;
+      }
+      finally {
+         release();
+      }
+   }
+
+   /**
+    * Forces all previous writes to the file to disk.
+    * The file's metadata is forced only if the file
+    * has grown since it was last forced.
+    * If the channel was closed in the meantime, forcing
+    * a newly-opened channel still forces those writes,
+    * because they belong to the file and not the channel.
+    * @throws IOException
+    */
+   void force() throws IOException {
+      FileChannel fc = acquire();
+      try {
+         boolean metadata = grown;
+         grown = false;
+         fc.force(metadata);
+      }
+      finally {
+         release();
+      }
+   }
+
+   /**
+    * Returns the number of blocks in the file.
+    * @return the number of blocks
+    */
+   int size() {
+      return numblocks;
+   }
+
+   /**
+    * Returns the channel of the file, opening it if necessary,
+    * and marks it as in use.
+    * Each call must be matched by a call to {@link #release()}.
+    * @return the file channel
+    * @throws IOException
+    */
+   FileChannel acquire() throws IOException {
+      FileChannel result;
+      boolean opened = false;
+      synchronized (channelLock) {
+         if (fc == null) {
+            fc = new RandomAccessFile(file, "rw").getChannel();
+            opened = true;
+         }
+         users++;
+         lastUsed = System.nanoTime();
+         result = fc;
+      }
+      // the cache is called without holding the channel lock,
+      // since it may need to close the channels of other files
+      if (opened)
+         cache.opened(this);
+      else
+         cache.hit();
+      return result;
+   }
+
+   /**
+    * Marks the channel as no longer in use by the caller.
+    */
+   void release() {
+      synchronized (channelLock) {
+         users--;
+      }
+   }
+
+   /**
+    * Closes the channel, unless it is in use.
+    * This method is called by the {@link ChannelCache}.
+    * @return true if the channel is now closed
+    */
+   boolean tryClose() {
+      synchronized (channelLock) {
+         if (users > 0)
+            return false;
+         if (fc != null) {
+            try {
+               fc.close();
+            }
+            catch (IOException e) {
+               // the channel is unusable either way
+            }
+            fc = null;
+         }
+         return true;
+      }
+   }
+
+   /**
+    * Returns the time at which the channel was last acquired.
+    * @return the time of last use, as given by System.nanoTime
+    */
+   long lastUsed() {
+      return lastUsed;
+   }
+
+   /**
+    * Returns the I/O statistics of the file.
+    * @return the file's statistics
+    */
+   IOStats stats() {
+      return stats;
+   }
+
+   /**
+    * Returns the class of the file, which determines
+    * the group of statistics that its I/O is added to.
+    * @return the class of the file
+    */
+   FileClass fileClass() {
+      return fileClass;
+   }
+
+   /**
+    * Sets the class of the file.
+    * @param fileClass the class of the file
+    */
+   void setFileClass(FileClass fileClass) {
+      this.fileClass = fileClass;
+   }
+
+   private synchronized void extendTo(int n) {
+      if (n > numblocks)
+         numblocks = n;
+      if (n > physblocks) {
+         physblocks = n;
+         grown = true;
+      }
+   }
+
+   /**
+    * Extends the file by writing an extent of zeroed blocks
+    * at its physical end.
+    * The extent is as large as the file, but at least
+    * one block and at most the maximum extent size.
+    * A file that is not a record file is extended by one block.
+    * @param fc the file's channel
+    * @throws IOException
+    */
+   private void preallocate(FileChannel fc) throws IOException {
+      int max = (fileClass == FileClass.TABLE) ? maxextent : 1;
+      int extent = Math.max(1, Math.min(physblocks, max));
+      writeFully(fc, zeros(extent * BLOCK_SIZE), (long) physblocks * BLOCK_SIZE);
+      physblocks += extent;
+      grown = true;
+   }
+
+   /**
+    * Writes all the remaining bytes of a bytebuffer
+    * at the specified position of the file,
+    * since a single positional write may write fewer.
+    */
+   private static void writeFully(FileChannel fc, ByteBuffer bb, long pos) throws IOException {
+      long start = pos - bb.position();
+      while (bb.hasRemaining())
+         fc.write(bb, start + bb.position());
+   }
+
+   /**
+    * Returns a buffer of the specified number of zero bytes.
+    * The buffer is shared, so only a duplicate of it is returned.
+    */
+   private static synchronized ByteBuffer zeros(int size) {
+      if (zeros.capacity() < size)
+         zeros = ByteBuffer.allocateDirect(size);
+      ByteBuffer bb = zeros.duplicate();
+      bb.limit(size);
+      return bb;
+   }
+}
@@ -0,0 +1,12 @@
+package simpledb.file;
+
+/**
+ * The kinds of files in a database,
+ * used to group the file manager's I/O statistics.
+ * A file is classified as LOG, TEMP or TABLE by its name;
+ * index implementations reclassify their own files
+ * by calling {@link FileMgr#setFileClass(String, FileClass)}.
+ */
+public enum FileClass {
+   TABLE, BTREE_DIR, BTREE_LEAF, HASH_BUCKET, TEMP, LOG
+}
@@ -1,69 +1,159 @@
 package simpledb.file;
 
-import static simpledb.file.Page.BLOCK_SIZE;
+import simpledb.server.SimpleDB;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The SimpleDB file manager.
  * The database system stores its data as files within a specified directory.
  * The file manager provides methods for reading the contents of
- * a file block to a Java byte buffer,
+ * a file block (or several consecutive blocks) to Java byte buffers,
  * writing the contents of a byte buffer to a file block,
  * and appending the contents of a byte buffer to the end of a file.
  * These methods are called exclusively by the class {@link simpledb.file.Page Page},
  * and are thus package-private.
- * The class also contains two public methods:
+ * The class also contains several public methods:
  * Method {@link #isNew() isNew} is called during system initialization by {@link simpledb.server.SimpleDB#init}.
  * Method {@link #size(String) size} is called by the log manager and transaction manager to
  * determine the end of the file.
+ * Writes are not synchronous; methods {@link #force(String) force}
+ * and {@link #forceAll() forceAll} are called by the log manager and
+ * buffer manager at the points where durability is required.
+ * The file manager also determines the block size of the database,
+ * which is chosen when the database is created and
+ * recorded in its header file.
  * @author Edward Sciore
  */
 public class FileMgr {
+   /**
+    * The name of the file that records the block size of the database.
+    */
+   public static final String HEADER_FILE = "simpledb.hdr";
+
+   /**
+    * The name of the file to which the header is written
+    * before it is renamed into place.
+    */
+   private static final String HEADER_TEMP_FILE = HEADER_FILE + ".tmp";
+
+   /**
+    * The block size of a database that was created
+    * before the header file existed.
+    */
+   public static final int LEGACY_BLOCK_SIZE = 400;
+
+   /**
+    * The name of the file that holds the blocks of all temporary tables.
+    */
+   public static final String TEMP_SPACE_FILE = "tempspace";
+
+   /**
+    * The name of the file that lists the blocks that were
+    * in the buffer pool when it was last saved.
+    */
+   public static final String HOT_PAGE_FILE = "simpledb.hot";
+
    private File dbDirectory;
    private boolean isNew;
-   private Map<String,FileChannel> openFiles = new HashMap<String,FileChannel>();
+   private Map<String,DbFile> openFiles = new ConcurrentHashMap<String,DbFile>();
+   private Set<String> unforcedFiles = ConcurrentHashMap.<String>newKeySet();
+   private ChannelCache channels = new ChannelCache(SimpleDB.MAX_OPEN_FILES);
+   private Map<FileClass,IOStats> classStats = new EnumMap<FileClass,IOStats>(FileClass.class);
+   private TempSpace tempSpace;
+   private PageArena scratchPages;
+
+   /**
+    * The number of frames in each segment of the arena
+    * from which short-lived pages are allocated.
+    */
+   private static final int SCRATCH_SEGMENT_PAGES = 8;
 
    /**
     * Creates a file manager for the specified database.
     * The database will be stored in a folder of that name
     * in the user's home directory.
     * If the folder does not exist, then a folder containing
-    * an empty database is created automatically.
-    * Files for all temporary tables (i.e. tables beginning with "temp") are deleted.
+    * an empty database is created automatically,
+    * and the specified block size is recorded in its header file.
+    * A folder that is empty (apart from a partly written header)
+    * is the remains of a creation that did not finish,
+    * and is also treated as a new database.
+    * Otherwise the block size is read from the header file,
+    * and the specified block size is ignored.
+    * In either case, the value of {@link Page#BLOCK_SIZE} is set accordingly.
+    * Files for all temporary tables (i.e. tables beginning with "temp"),
+    * including the shared temp space, are deleted.
     * @param dbname the name of the directory that holds the database
+    * @param blocksize the block size to use if the database is new
     */
-   public FileMgr(String dbname) {
+   public FileMgr(String dbname, int blocksize) {
       String homedir = System.getProperty("user.home");
       dbDirectory = new File(homedir, dbname);
-      isNew = !dbDirectory.exists();
+      isNew = !dbDirectory.exists() || isUnfinished(dbDirectory);
 
       // create the directory if the database is new
-      if (isNew && !dbDirectory.mkdir())
+      if (isNew && !dbDirectory.exists() && !dbDirectory.mkdir())
          throw new RuntimeException("cannot create " + dbname);
 
+      Page.BLOCK_SIZE = isNew ? checkBlockSize(blocksize) : readBlockSize();
+      scratchPages = new PageArena(SCRATCH_SEGMENT_PAGES);
+
+      for (FileClass c : FileClass.values())
+         classStats.put(c, new IOStats());
+
       // remove any leftover temporary tables
       for (String filename : dbDirectory.list())
          if (filename.startsWith("temp"))
          new File(dbDirectory, filename).delete();
+      tempSpace = new TempSpace(openFile(new File(dbDirectory, TEMP_SPACE_FILE)),
+                                SimpleDB.TEMP_EXTENT_SIZE);
    }
 
    /**
     * Reads the contents of a disk block into a bytebuffer.
+    * The method is not synchronized, so that reads of
+    * different blocks can proceed concurrently.
     * @param blk a reference to a disk block
     * @param bb  the bytebuffer
     */
-   synchronized void read(Block blk, ByteBuffer bb) {
+   void read(Block blk, ByteBuffer bb) {
+      DbFile f = getFile(blk.fileName());
+      long start = System.nanoTime();
       try {
-         bb.clear();
-         FileChannel fc = getFile(blk.fileName());
-         fc.read(bb, blk.number() * BLOCK_SIZE);
+         f.read(blk.number(), bb);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot read block " + blk);
       }
+      long nanos = System.nanoTime() - start;
+      f.stats().recordRead(1, nanos);
+      classStats.get(f.fileClass()).recordRead(1, nanos);
+   }
+
+   /**
+    * Reads the contents of consecutive disk blocks into bytebuffers,
+    * with a single disk access.
+    * The blocks must exist.
+    * @param first a reference to the first disk block
+    * @param bbs the bytebuffers, one per block
+    */
+   void read(Block first, ByteBuffer[] bbs) {
+      DbFile f = getFile(first.fileName());
+      long start = System.nanoTime();
+      try {
+         f.read(first.number(), bbs);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read " + bbs.length + " blocks from " + first);
+      }
+      long nanos = System.nanoTime() - start;
+      f.stats().recordRead(bbs.length, nanos);
+      classStats.get(f.fileClass()).recordRead(bbs.length, nanos);
    }
 
    /**
@@ -71,46 +161,158 @@ public class FileMgr {
     * @param blk a reference to a disk block
     * @param bb  the bytebuffer
     */
-   synchronized void write(Block blk, ByteBuffer bb) {
+   void write(Block blk, ByteBuffer bb) {
+      DbFile f = getFile(blk.fileName());
+      long start = System.nanoTime();
       try {
-         bb.rewind();
-         FileChannel fc = getFile(blk.fileName());
-         fc.write(bb, blk.number() * BLOCK_SIZE);
+         f.write(blk.number(), bb);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot write block" + blk);
       }
+      long nanos = System.nanoTime() - start;
+      f.stats().recordWrite(1, nanos);
+      classStats.get(f.fileClass()).recordWrite(1, nanos);
+      noteWrite(blk.fileName());
+   }
+
+   /**
+    * Writes the contents of bytebuffers into consecutive disk blocks,
+    * with a single disk access.
+    * @param first a reference to the first disk block
+    * @param bbs the bytebuffers, one per block
+    */
+   void write(Block first, ByteBuffer[] bbs) {
+      DbFile f = getFile(first.fileName());
+      long start = System.nanoTime();
+      try {
+         f.write(first.number(), bbs);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write " + bbs.length + " blocks to " + first);
+      }
+      long nanos = System.nanoTime() - start;
+      f.stats().recordWrite(bbs.length, nanos);
+      classStats.get(f.fileClass()).recordWrite(bbs.length, nanos);
+      noteWrite(first.fileName());
    }
 
    /**
     * Appends the contents of a bytebuffer to the end
     * of the specified file.
+    * Only appends to the same file are serialized.
     * @param filename the name of the file
     * @param bb  the bytebuffer
     * @return a reference to the newly-created block.
     */
-   synchronized Block append(String filename, ByteBuffer bb) {
-      int newblknum = size(filename);
-      Block blk = new Block(filename, newblknum);
-      write(blk, bb);
-      return blk;
+   Block append(String filename, ByteBuffer bb) {
+      DbFile f = getFile(filename);
+      long start = System.nanoTime();
+      int newblknum;
+      try {
+         newblknum = f.append(bb);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot append block to " + filename);
+      }
+      long nanos = System.nanoTime() - start;
+      f.stats().recordAppend(1, nanos);
+      classStats.get(f.fileClass()).recordAppend(1, nanos);
+      noteWrite(filename);
+      return new Block(filename, newblknum);
    }
 
    /**
     * Returns the number of blocks in the specified file.
+    * The file's logical length is kept in memory,
+    * so this method does not access the disk.
+    * A temporary table that does not exist (because it
+    * has not been written yet, or has been dropped) is empty.
     * @param filename the name of the file
     * @return the number of blocks in the file
     */
-   public synchronized int size(String filename) {
+   public int size(String filename) {
+      DbFile f = isTemp(filename) ? openFiles.get(filename) : getFile(filename);
+      return (f == null) ? 0 : f.size();
+   }
+
+   /**
+    * Forces the previous writes to the specified file to disk.
+    * @param filename the name of the file
+    */
+   public void force(String filename) {
       try {
-         FileChannel fc = getFile(filename);
-         return (int)(fc.size() / BLOCK_SIZE);
+         unforcedFiles.remove(filename);
+         getFile(filename).force();
       }
       catch (IOException e) {
-         throw new RuntimeException("cannot access " + filename);
+         throw new RuntimeException("cannot force " + filename);
       }
    }
 
+   /**
+    * Forces to disk every file that has been written
+    * since it was last forced.
+    * Temporary files are never forced,
+    * because their contents need not survive a crash.
+    */
+   public void forceAll() {
+      for (String filename : unforcedFiles)
+         force(filename);
+   }
+
+   /**
+    * Returns the names of the files that have been written
+    * since they were last forced, whose recent writes
+    * would be lost if the operating system crashed.
+    * @return the names of the unforced files
+    */
+   public Set<String> unforcedFiles() {
+      return new HashSet<String>(unforcedFiles);
+   }
+
+   /**
+    * Drops the specified temporary table,
+    * returning its extents to the shared temp space.
+    * The caller must ensure that no buffer still holds
+    * a modified block of the table.
+    * @param filename the name of the table's file
+    */
+   public void dropTempFile(String filename) {
+      DbFile f = openFiles.remove(filename);
+      if (f instanceof TempFile)
+         ((TempFile) f).free();
+   }
+
+   /**
+    * Returns the number of extents of the shared temp space
+    * that currently belong to temporary tables.
+    * @return the number of temp extents in use
+    */
+   public int tempExtentsInUse() {
+      return tempSpace.extentsInUse();
+   }
+
+   /**
+    * Returns a page for temporary use, such as reading the log.
+    * The page comes from a pooled arena, and should be
+    * returned with {@link #releasePage(Page)} when it is
+    * no longer needed, so that its frame can be reused.
+    * @return the page
+    */
+   public Page allocatePage() {
+      return scratchPages.allocate();
+   }
+
+   /**
+    * Returns a page obtained from {@link #allocatePage()} to the pool.
+    * The page must not be used afterwards.
+    * @param p the page
+    */
+   public void releasePage(Page p) {
+      scratchPages.release(p);
+   }
+
    /**
     * Returns a boolean indicating whether the file manager
     * had to create a new database directory.
@@ -121,22 +323,322 @@ public class FileMgr {
    }
 
    /**
-    * Returns the file channel for the specified filename.
-    * The file channel is stored in a map keyed on the filename.
-    * If the file is not open, then it is opened and the file channel
-    * is added to the map.
+    * Records the specified blocks in the hot-page file,
+    * replacing the blocks recorded earlier.
+    * The list is written to a new file, which then
+    * replaces the old one, so that a crash leaves
+    * either the old list or the new one.
+    * @param blocks the blocks to record
+    */
+   public void writeHotPages(Collection<Block> blocks) {
+      File hot = new File(dbDirectory, HOT_PAGE_FILE);
+      File tmp = new File(dbDirectory, HOT_PAGE_FILE + ".new");
+      try {
+         try (DataOutputStream out = new DataOutputStream(
+                  new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(blocks.size());
+            for (Block blk : blocks) {
+               out.writeUTF(blk.fileName());
+               out.writeInt(blk.number());
+            }
+         }
+         Files.move(tmp.toPath(), hot.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write " + hot);
+      }
+   }
+
+   /**
+    * Returns the blocks recorded in the hot-page file.
+    * Since the list is only a hint, a missing or
+    * unreadable file is treated as an empty list.
+    * @return the recorded blocks
+    */
+   public List<Block> readHotPages() {
+      List<Block> blocks = new ArrayList<Block>();
+      File hot = new File(dbDirectory, HOT_PAGE_FILE);
+      if (!hot.exists())
+         return blocks;
+      try (DataInputStream in = new DataInputStream(
+               new BufferedInputStream(new FileInputStream(hot)))) {
+         int count = in.readInt();
+         for (int i=0; i<count; i++) {
+            String filename = in.readUTF();
+            blocks.add(new Block(filename, in.readInt()));
+         }
+         return blocks;
+      }
+      catch (IOException e) {
+         return new ArrayList<Block>();
+      }
+   }
+
+   /**
+    * Verifies that the block size of a new database is
+    * one of the supported sizes (4K, 8K, 16K or 32K),
+    * and records it in the header file.
+    * @param blocksize the requested block size
+    * @return the block size
+    */
+   private int checkBlockSize(int blocksize) {
+      if (blocksize != 4096 && blocksize != 8192
+            && blocksize != 16384 && blocksize != 32768)
+         throw new RuntimeException("unsupported block size " + blocksize);
+      writeHeader(blocksize);
+      return blocksize;
+   }
+
+   /**
+    * Reads the block size of an existing database from its header file.
+    * A database without a header file predates it,
+    * and so has the legacy block size;
+    * a header file is written for it.
+    * A header file of the wrong length is rejected,
+    * rather than mistaken for a missing one.
+    * @return the block size
+    */
+   private int readBlockSize() {
+      File hdr = new File(dbDirectory, HEADER_FILE);
+      if (!hdr.exists()) {
+         writeHeader(LEGACY_BLOCK_SIZE);
+         return LEGACY_BLOCK_SIZE;
+      }
+      try (RandomAccessFile f = new RandomAccessFile(hdr, "r")) {
+         if (f.length() != Page.INT_SIZE)
+            throw new RuntimeException("truncated header file " + hdr);
+         int blocksize = f.readInt();
+         if (blocksize != LEGACY_BLOCK_SIZE && blocksize != 4096 && blocksize != 8192
+               && blocksize != 16384 && blocksize != 32768)
+            throw new RuntimeException("corrupt header file " + hdr);
+         return blocksize;
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read " + hdr);
+      }
+   }
+
+   /**
+    * Writes the header file.
+    * The header is written to a temporary file and forced,
+    * and then renamed into place, so that a crash leaves
+    * either no header file or a complete one.
+    * @param blocksize the block size to record
+    */
+   private void writeHeader(int blocksize) {
+      File hdr = new File(dbDirectory, HEADER_FILE);
+      File tmp = new File(dbDirectory, HEADER_TEMP_FILE);
+      try (RandomAccessFile f = new RandomAccessFile(tmp, "rw")) {
+         f.setLength(0);
+         f.writeInt(blocksize);
+         f.getFD().sync();
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write " + tmp);
+      }
+      try {
+         Files.move(tmp.toPath(), hdr.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot rename " + tmp + " to " + hdr);
+      }
+      forceDirectory();
+   }
+
+   /**
+    * Forces the database directory, so that a file
+    * renamed into it survives a crash.
+    * Some platforms cannot open a directory;
+    * there the rename is left to the operating system.
+    */
+   private void forceDirectory() {
+      try (FileChannel dir = FileChannel.open(dbDirectory.toPath(), StandardOpenOption.READ)) {
+         dir.force(true);
+      }
+      catch (IOException e) {
+         // the directory cannot be forced on this platform
+      }
+   }
+
+   /**
+    * Determines if the specified database directory was
+    * created by a file manager that stopped before
+    * it wrote the header file.
+    * Such a directory holds no files other than
+    * the temporary header file.
+    * @param dir the database directory
+    * @return true if the creation of the database did not finish
+    */
+   private static boolean isUnfinished(File dir) {
+      String[] filenames = dir.list();
+      if (filenames == null)
+         return false;
+      for (String filename : filenames)
+         if (!filename.equals(HEADER_TEMP_FILE))
+            return false;
+      return true;
+   }
+
+   /**
+    * Returns the object for the specified filename.
+    * The objects are stored in a concurrent map keyed on the filename,
+    * so the common case of an already-known file needs no locking.
+    * If the file is not known, then an object is created and
+    * added to the map.
+    * The object keeps the file's size even while its channel is closed.
+    * The blocks of a temporary table are kept in the shared temp space,
+    * so its object has no file of its own.
     * @param filename the specified filename
-    * @return the file channel associated with the open file.
-    * @throws IOException
-    */
-   private FileChannel getFile(String filename) throws IOException {
-      FileChannel fc = openFiles.get(filename);
-      if (fc == null) {
-         File dbTable = new File(dbDirectory, filename);
-         RandomAccessFile f = new RandomAccessFile(dbTable, "rws");
-         fc = f.getChannel();
-         openFiles.put(filename, fc);
-      }
-      return fc;
+    * @return the object for the file
+    */
+   private DbFile getFile(String filename) {
+      DbFile f = openFiles.get(filename);
+      if (f == null) {
+         synchronized (openFiles) {
+            f = openFiles.get(filename);
+            if (f == null) {
+               File file = new File(dbDirectory, filename);
+               if (isTemp(filename))
+                  f = new TempFile(file, tempSpace);
+               else
+                  f = openFile(file);
+               f.setFileClass(classify(filename));
+               openFiles.put(filename, f);
+            }
+         }
+      }
+      return f;
+   }
+
+   /**
+    * Returns the number of block operations that found
+    * their file's channel already open.
+    * @return the number of channel cache hits
+    */
+   public long channelHits() {
+      return channels.hits();
+   }
+
+   /**
+    * Returns the number of times that a file channel was opened.
+    * @return the number of channel opens
+    */
+   public long channelOpens() {
+      return channels.opens();
+   }
+
+   /**
+    * Returns the number of file channels that were closed
+    * because too many channels were open.
+    * At most {@link SimpleDB#MAX_OPEN_FILES} channels are kept open.
+    * @return the number of channel evictions
+    */
+   public long channelEvictions() {
+      return channels.evictions();
+   }
+
+   /**
+    * Sets the class of the specified file,
+    * which determines the group of I/O statistics
+    * that its block operations are added to.
+    * Files are initially classified by name;
+    * index implementations call this method
+    * to classify the files they create.
+    * @param filename the name of the file
+    * @param fileClass the class of the file
+    */
+   public void setFileClass(String filename, FileClass fileClass) {
+      getFile(filename).setFileClass(fileClass);
+   }
+
+   /**
+    * Returns the I/O statistics of the specified class of files.
+    * @param fileClass the class of files
+    * @return the statistics for that class
+    */
+   public IOStats classStats(FileClass fileClass) {
+      return classStats.get(fileClass);
+   }
+
+   /**
+    * Returns the I/O statistics of each file that has been accessed,
+    * keyed and sorted by filename.
+    * @return the statistics for each file
+    */
+   public SortedMap<String,IOStats> fileStats() {
+      SortedMap<String,IOStats> result = new TreeMap<String,IOStats>();
+      for (Map.Entry<String,DbFile> e : openFiles.entrySet())
+         result.put(e.getKey(), e.getValue().stats());
+      return result;
+   }
+
+   /**
+    * Returns the cache that bounds the number of open channels.
+    * @return the channel cache
+    */
+   ChannelCache channels() {
+      return channels;
+   }
+
+   /**
+    * Records that the specified file has unforced writes,
+    * unless it is a temporary file.
+    */
+   private void noteWrite(String filename) {
+      if (!isTemp(filename))
+         unforcedFiles.add(filename);
+   }
+
+   private boolean isTemp(String filename) {
+      return filename.startsWith("temp");
+   }
+
+   /**
+    * Determines the class of a file from its name.
+    */
+   private FileClass classify(String filename) {
+      if (filename.equals(SimpleDB.LOG_FILE))
+         return FileClass.LOG;
+      else if (isTemp(filename))
+         return FileClass.TEMP;
+      else
+         return FileClass.TABLE;
+   }
+
+   /**
+    * Creates the object for the specified file;
+    * its channel is opened when it is first accessed.
+    * Subclasses override this method to provide
+    * a different way of accessing the file's blocks.
+    * @param f the file
+    * @return the open file
+    */
+   DbFile openFile(File f) {
+      return new DbFile(f, extentSize(f), channels);
+   }
+
+   /**
+    * Returns the maximum number of blocks to preallocate
+    * when the specified file grows.
+    * Only record files (whose names end in ".tbl") are preallocated,
+    * because a zeroed block reads as a page of empty records
+    * and so the preallocated blocks of these files are harmless
+    * if the system restarts before they are used.
+    * Index files also end in ".tbl", but their zeroed blocks
+    * are not harmless; since index implementations
+    * {@link #setFileClass(String, FileClass) classify} their files,
+    * a file is preallocated only while its class is
+    * {@link FileClass#TABLE}.
+    * Other files, such as the log, grow one block at a time.
+    * @param f the file
+    * @return the maximum extent size, in blocks
+    */
+   int extentSize(File f) {
+      if (f.getName().endsWith(".tbl"))
+         return SimpleDB.EXTENT_SIZE;
+      else
+         return 1;
    }
 }
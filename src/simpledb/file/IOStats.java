@@ -0,0 +1,96 @@
+package simpledb.file;
+
+import static simpledb.file.Page.BLOCK_SIZE;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The I/O statistics of a file, or of a class of files.
+ * The file manager records every block read, write and append,
+ * along with the latency of each operation;
+ * a scatter read or gather write of several blocks
+ * counts each of its blocks, but has a single latency.
+ * All counters are lock-free, so that recording
+ * adds no contention to the I/O path.
+ * Appends are counted as writes in the write-latency histogram.
+ */
+public class IOStats implements IOStatsMBean {
+   private LongAdder reads = new LongAdder();
+   private LongAdder writes = new LongAdder();
+   private LongAdder appends = new LongAdder();
+   private LongAdder bytesRead = new LongAdder();
+   private LongAdder bytesWritten = new LongAdder();
+   private LatencyHistogram readLatency = new LatencyHistogram();
+   private LatencyHistogram writeLatency = new LatencyHistogram();
+
+   void recordRead(int blocks, long nanos) {
+      reads.add(blocks);
+      bytesRead.add((long) blocks * BLOCK_SIZE);
+      readLatency.record(nanos);
+   }
+
+   void recordWrite(int blocks, long nanos) {
+      writes.add(blocks);
+      bytesWritten.add((long) blocks * BLOCK_SIZE);
+      writeLatency.record(nanos);
+   }
+
+   void recordAppend(int blocks, long nanos) {
+      appends.add(blocks);
+      bytesWritten.add((long) blocks * BLOCK_SIZE);
+      writeLatency.record(nanos);
+   }
+
+   public long getReads() {
+      return reads.sum();
+   }
+
+   public long getWrites() {
+      return writes.sum();
+   }
+
+   public long getAppends() {
+      return appends.sum();
+   }
+
+   public long getBytesRead() {
+      return bytesRead.sum();
+   }
+
+   public long getBytesWritten() {
+      return bytesWritten.sum();
+   }
+
+   public long[] getReadLatencyHistogram() {
+      return readLatency.counts();
+   }
+
+   public long[] getWriteLatencyHistogram() {
+      return writeLatency.counts();
+   }
+
+   public long getReadLatencyP99() {
+      return readLatency.percentile(99);
+   }
+
+   public long getWriteLatencyP99() {
+      return writeLatency.percentile(99);
+   }
+
+   /**
+    * Returns true if no I/O has been recorded.
+    * @return true if the statistics are empty
+    */
+   public boolean isEmpty() {
+      return getReads() + getWrites() + getAppends() == 0;
+   }
+
+   public String toString() {
+      return "reads=" + getReads() + " writes=" + getWrites()
+         + " appends=" + getAppends()
+         + " bytesRead=" + getBytesRead() + " bytesWritten=" + getBytesWritten()
+         + " readP50<=" + readLatency.percentile(50) + "us"
+         + " readP99<=" + getReadLatencyP99() + "us"
+         + " writeP50<=" + writeLatency.percentile(50) + "us"
+         + " writeP99<=" + getWriteLatencyP99() + "us";
+   }
+}
@@ -0,0 +1,55 @@
+package simpledb.file;
+
+/**
+ * The management interface of an {@link IOStats} object,
+ * through which the I/O statistics of each class of file
+ * are published to JMX.
+ */
+public interface IOStatsMBean {
+   /**
+    * @return the number of blocks read,
+    * counting each block of a scatter read
+    */
+   long getReads();
+
+   /**
+    * @return the number of blocks written in place,
+    * counting each block of a gather write
+    */
+   long getWrites();
+
+   /**
+    * @return the number of blocks appended
+    */
+   long getAppends();
+
+   /**
+    * @return the number of bytes read
+    */
+   long getBytesRead();
+
+   /**
+    * @return the number of bytes written or appended
+    */
+   long getBytesWritten();
+
+   /**
+    * @return the read-latency histogram, in power-of-two microsecond buckets
+    */
+   long[] getReadLatencyHistogram();
+
+   /**
+    * @return the write-latency histogram, in power-of-two microsecond buckets
+    */
+   long[] getWriteLatencyHistogram();
+
+   /**
+    * @return an upper bound on the 99th-percentile read latency, in microseconds
+    */
+   long getReadLatencyP99();
+
+   /**
+    * @return an upper bound on the 99th-percentile write latency, in microseconds
+    */
+   long getWriteLatencyP99();
+}
@@ -0,0 +1,61 @@
+package simpledb.file;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of operation latencies, with buckets
+ * whose bounds are powers of two microseconds.
+ * Bucket 0 counts operations that took less than 1 microsecond,
+ * and bucket i counts operations that took at least 2<sup>i-1</sup>
+ * and less than 2<sup>i</sup> microseconds.
+ * The last bucket also counts all longer operations.
+ * Recording a latency is a single atomic increment.
+ */
+class LatencyHistogram {
+   static final int NUM_BUCKETS = 32;
+   private AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+   /**
+    * Counts an operation having the specified latency.
+    * @param nanos the latency of the operation, in nanoseconds
+    */
+   void record(long nanos) {
+      long micros = nanos / 1000;
+      int bucket = 64 - Long.numberOfLeadingZeros(micros);
+      counts.incrementAndGet(Math.min(bucket, NUM_BUCKETS - 1));
+   }
+
+   /**
+    * Returns a copy of the bucket counts.
+    * @return the number of operations in each bucket
+    */
+   long[] counts() {
+      long[] result = new long[NUM_BUCKETS];
+      for (int i=0; i<NUM_BUCKETS; i++)
+         result[i] = counts.get(i);
+      return result;
+   }
+
+   /**
+    * Returns an upper bound on the specified percentile of the latencies,
+    * namely the upper bound of the bucket containing it.
+    * @param pct the percentile, between 0 and 100
+    * @return the latency bound in microseconds, or 0 if nothing was recorded
+    */
+   long percentile(double pct) {
+      long[] c = counts();
+      long total = 0;
+      for (long n : c)
+         total += n;
+      if (total == 0)
+         return 0;
+      long rank = (long) Math.ceil(total * pct / 100);
+      long seen = 0;
+      for (int i=0; i<NUM_BUCKETS; i++) {
+         seen += c[i];
+         if (seen >= rank)
+            return 1L << i;
+      }
+      return 1L << (NUM_BUCKETS - 1);
+   }
+}
@@ -0,0 +1,175 @@
+package simpledb.file;
+
+import static simpledb.file.Page.BLOCK_SIZE;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * An open database file whose blocks are accessed
+ * through memory mappings of the file.
+ * The file is mapped in segments of {@link #SEGMENT_BLOCKS} blocks.
+ * Reading or writing a block is then a memory copy
+ * between the page and the mapping, instead of a system call.
+ * <p>
+ * A segment is mapped the first time one of its blocks is accessed.
+ * The last segment of a file is mapped only up to the current end of the file,
+ * and is remapped when a block beyond its mapping is accessed;
+ * thus the segments grow with the file.
+ * Appends are written through the file channel.
+ * <p>
+ * Pages are copied to and from the mapping
+ * rather than sharing it, because a page
+ * must not reach the disk before its log records do.
+ */
+class MappedDbFile extends DbFile {
+   /**
+    * The number of blocks in a mapped segment.
+    */
+   static final int SEGMENT_BLOCKS = 256;
+
+   private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+   /**
+    * Opens the specified file, creating it if necessary.
+    * No segments are mapped until they are accessed.
+    * @param f the file
+    * @param maxextent the maximum number of blocks to preallocate at a time
+    * @param cache the cache that bounds the number of open channels
+    */
+   MappedDbFile(File f, int maxextent, ChannelCache cache) {
+      super(f, maxextent, cache);
+   }
+
+   /**
+    * Copies the specified block from its mapped segment
+    * into a bytebuffer.
+    * @see simpledb.file.DbFile#read(int, java.nio.ByteBuffer)
+    */
+   void read(int blknum, ByteBuffer bb) throws IOException {
+      MappedByteBuffer seg = segment(blknum);
+      if (seg == null) {
+         super.read(blknum, bb);
+         return;
+      }
+      bb.clear();
+      bb.put(blockOf(seg, blknum));
+   }
+
+   /**
+    * Copies consecutive blocks into the bytebuffers, one at a time.
+    * Copying a mapped block needs no system call,
+    * so there is nothing to gain from a scatter read.
+    * @see simpledb.file.DbFile#read(int, java.nio.ByteBuffer[])
+    */
+   void read(int blknum, ByteBuffer[] bbs) throws IOException {
+      for (int i=0; i<bbs.length; i++)
+         read(blknum + i, bbs[i]);
+   }
+
+   /**
+    * Copies the contents of a bytebuffer into the
+    * mapped segment of the specified block.
+    * A block beyond the end of the file is written
+    * through the file channel.
+    * @see simpledb.file.DbFile#write(int, java.nio.ByteBuffer)
+    */
+   void write(int blknum, ByteBuffer bb) throws IOException {
+      MappedByteBuffer seg = segment(blknum);
+      if (seg == null) {
+         super.write(blknum, bb);
+         return;
+      }
+      bb.rewind();
+      blockOf(seg, blknum).put(bb);
+   }
+
+   /**
+    * Copies the bytebuffers into consecutive blocks, one at a time.
+    * @see simpledb.file.DbFile#write(int, java.nio.ByteBuffer[])
+    */
+   void write(int blknum, ByteBuffer[] bbs) throws IOException {
+      for (int i=0; i<bbs.length; i++)
+         write(blknum + i, bbs[i]);
+   }
+
+   /**
+    * Forces the mapped segments, and then the file itself, to disk.
+    * @see simpledb.file.DbFile#force()
+    */
+   void force() throws IOException {
+      for (MappedByteBuffer seg : segments)
+         if (seg != null)
+            seg.force();
+      super.force();
+   }
+
+   /**
+    * Returns the mapped segment containing the specified block,
+    * mapping or remapping it if necessary.
+    * Returns null if the block is beyond the end of the file.
+    * @param blknum the block number
+    * @return the segment containing the block
+    * @throws IOException
+    */
+   private MappedByteBuffer segment(int blknum) throws IOException {
+      if (blknum >= size())
+         return null;
+      int segnum = blknum / SEGMENT_BLOCKS;
+      MappedByteBuffer[] segs = segments;
+      if (segnum < segs.length && covers(segs[segnum], blknum))
+         return segs[segnum];
+      return map(segnum, blknum);
+   }
+
+   private synchronized MappedByteBuffer map(int segnum, int blknum) throws IOException {
+      MappedByteBuffer[] segs = segments;
+      if (segnum < segs.length && covers(segs[segnum], blknum))
+         return segs[segnum];
+      int firstblk = segnum * SEGMENT_BLOCKS;
+      int numblks = Math.min(SEGMENT_BLOCKS, size() - firstblk);
+      MappedByteBuffer seg;
+      FileChannel fc = acquire();
+      try {
+         // the mapping remains valid after the channel is closed
+         seg = fc.map(MapMode.READ_WRITE,
+               (long) firstblk * BLOCK_SIZE, (long) numblks * BLOCK_SIZE);
+      }
+      finally {
+         release();
+      }
+      if (segnum >= segs.length) {
+         MappedByteBuffer[] newsegs = new MappedByteBuffer[segnum + 1];
+         System.arraycopy(segs, 0, newsegs, 0, segs.length);
+         segs = newsegs;
+      }
+      else
+         segs = segs.clone();
+      segs[segnum] = seg;
+      segments = segs;
+      return seg;
+   }
+
+   private boolean covers(MappedByteBuffer seg, int blknum) {
+      return seg != null && blockOffset(blknum) + BLOCK_SIZE <= seg.capacity();
+   }
+
+   /**
+    * Returns a view of the specified block within its segment.
+    * A separate view is used so that concurrent accesses
+    * to the segment do not share a position.
+    */
+   private ByteBuffer blockOf(MappedByteBuffer seg, int blknum) {
+      ByteBuffer blk = seg.duplicate();
+      int offset = blockOffset(blknum);
+      blk.limit(offset + BLOCK_SIZE);
+      blk.position(offset);
+      return blk;
+   }
+
+   private int blockOffset(int blknum) {
+      return (blknum % SEGMENT_BLOCKS) * BLOCK_SIZE;
+   }
+}
@@ -0,0 +1,34 @@
+package simpledb.file;
+
+import java.io.File;
+
+/**
+ * A file manager that accesses database files through
+ * memory mappings instead of read and write system calls.
+ * It is intended for read-mostly databases, where most
+ * block accesses become memory copies.
+ * The manager is selected by setting
+ * {@link simpledb.server.SimpleDB#MAPPED_FILES} before
+ * the system is initialized.
+ * Its behavior is otherwise identical to that of {@link FileMgr}.
+ * @see MappedDbFile
+ */
+public class MappedFileMgr extends FileMgr {
+   /**
+    * Creates a memory-mapping file manager for the specified database.
+    * @see FileMgr#FileMgr(String, int)
+    * @param dbname the name of the directory that holds the database
+    * @param blocksize the block size to use if the database is new
+    */
+   public MappedFileMgr(String dbname, int blocksize) {
+      super(dbname, blocksize);
+   }
+
+   /**
+    * Opens the specified file for mapped access.
+    * @see simpledb.file.FileMgr#openFile(java.io.File)
+    */
+   DbFile openFile(File f) {
+      return new MappedDbFile(f, extentSize(f), channels());
+   }
+}
@@ -33,16 +33,24 @@ import java.nio.charset.Charset;
  * p3.read(blk);
  * String s = p3.getString(20);
  * </pre>
+ * The contents of a page that is created by its constructor
+ * are a direct buffer of its own. Pages that are created
+ * in large numbers (such as those of the buffer pool)
+ * or only for a moment (such as those that read the log)
+ * come from a {@link PageArena} instead.
  * @author Edward Sciore
  */
 public class Page {
    /**
     * The number of bytes in a block.
-    * This value is set unreasonably low, so that it is easier
-    * to create and test databases having a lot of blocks.
-    * A more realistic value would be 4K.
+    * The value is chosen when a database is created and is
+    * recorded in the database's header file;
+    * it is assigned by the {@link FileMgr} constructor,
+    * and so must not be used until the file manager exists.
+    * The initial value of 400 is the block size of databases
+    * that were created before the header file existed.
     */
-   public static final int BLOCK_SIZE = 400;
+   public static int BLOCK_SIZE = 400;
    
    /**
     * The size of an integer in bytes.
@@ -51,6 +59,27 @@ public class Page {
     */
    public static final int INT_SIZE = Integer.SIZE / Byte.SIZE;
    
+   /**
+    * The charset used to encode strings,
+    * which is the default charset of the JVM.
+    */
+   public static final Charset CHARSET = Charset.defaultCharset();
+   
+   /**
+    * The maximum number of bytes that the charset uses for a char.
+    * It is computed once, so that {@link #STR_SIZE(int)}
+    * does not create an encoder on every call.
+    */
+   private static final int BYTES_PER_CHAR = (int) CHARSET.newEncoder().maxBytesPerChar();
+   
+   /**
+    * True if the charset encodes each ASCII char as the single
+    * byte of the same value, as UTF-8 and ISO-8859-1 do.
+    * Strings of ASCII chars are then copied to and from the page
+    * one byte per char, without the charset.
+    */
+   private static final boolean ASCII_COMPATIBLE = isAsciiCompatible();
+   
    /**
     * The maximum size, in bytes, of a string of length n.
     * A string is represented as the encoding of its characters,
@@ -62,11 +91,12 @@ public class Page {
     * @return the maximum number of bytes required to store a string of size n
     */
    public static final int STR_SIZE(int n) {
-      float bytesPerChar = Charset.defaultCharset().newEncoder().maxBytesPerChar();
-      return INT_SIZE + (n * (int)bytesPerChar);
+      return INT_SIZE + (n * BYTES_PER_CHAR);
    }
    
-   private ByteBuffer contents = ByteBuffer.allocateDirect(BLOCK_SIZE);
+   private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>();
+   
+   private ByteBuffer contents;
    private FileMgr filemgr = SimpleDB.fileMgr();
    
    /**
@@ -81,7 +111,18 @@ public class Page {
     * {@link simpledb.server.SimpleDB#initFileLogAndBufferMgr(String)}
     * is called first.
     */
-   public Page() {}
+   public Page() {
+      this(ByteBuffer.allocateDirect(BLOCK_SIZE));
+   }
+   
+   /**
+    * Creates a page whose contents are the specified frame.
+    * This constructor is called exclusively by {@link PageArena}.
+    * @param frame a buffer of BLOCK_SIZE bytes
+    */
+   Page(ByteBuffer frame) {
+      contents = frame;
+   }
    
    /**
     * Populates the page with the contents of the specified disk block. 
@@ -91,6 +132,22 @@ public class Page {
       filemgr.read(blk, contents);
    }
    
+   /**
+    * Populates the specified pages with the contents of consecutive
+    * disk blocks, starting at the specified block,
+    * using a single disk access.
+    * The pages are not locked, so the caller must ensure
+    * that no other thread is using them.
+    * @param first a reference to the first disk block
+    * @param pages the pages, one per block
+    */
+   public static void read(Block first, Page[] pages) {
+      ByteBuffer[] bbs = new ByteBuffer[pages.length];
+      for (int i=0; i<pages.length; i++)
+         bbs[i] = pages[i].contents;
+      SimpleDB.fileMgr().read(first, bbs);
+   }
+
    /**
     * Writes the contents of the page to the specified disk block.
     * @param blk a reference to a disk block
@@ -99,6 +156,22 @@ public class Page {
       filemgr.write(blk, contents);
    }
    
+   /**
+    * Writes the contents of the specified pages to consecutive
+    * disk blocks, starting at the specified block,
+    * using a single disk access.
+    * The pages are not locked, so the caller must ensure
+    * that no other thread is modifying the parts of them that matter.
+    * @param first a reference to the first disk block
+    * @param pages the pages, one per block
+    */
+   public static void write(Block first, Page[] pages) {
+      ByteBuffer[] bbs = new ByteBuffer[pages.length];
+      for (int i=0; i<pages.length; i++)
+         bbs[i] = pages[i].contents;
+      SimpleDB.fileMgr().write(first, bbs);
+   }
+
    /**
     * Appends the contents of the page to the specified file.
     * @param filename the name of the file
@@ -108,16 +181,26 @@ public class Page {
       return filemgr.append(filename, contents);
    }
    
+   /**
+    * Returns the buffer that holds the contents of the page,
+    * so that an arena can reuse it.
+    * @return the page's frame
+    */
+   ByteBuffer frame() {
+      return contents;
+   }
+   
    /**
     * Returns the integer value at a specified offset of the page.
     * If an integer was not stored at that location, 
     * the behavior of the method is unpredictable.
+    * The accessor methods use absolute positions within the page,
+    * so they need no synchronization.
     * @param offset the byte offset within the page
     * @return the integer value at that offset
     */
-   public synchronized int getInt(int offset) {
-      contents.position(offset);
-      return contents.getInt();
+   public int getInt(int offset) {
+      return contents.getInt(offset);
    }
    
    /**
@@ -125,35 +208,73 @@ public class Page {
     * @param offset the byte offset within the page
     * @param val the integer to be written to the page
     */
-   public synchronized void setInt(int offset, int val) {
-      contents.position(offset);
-      contents.putInt(val);
+   public void setInt(int offset, int val) {
+      contents.putInt(offset, val);
    }
    
    /**
     * Returns the string value at the specified offset of the page.
     * If a string was not stored at that location,
     * the behavior of the method is unpredictable.
+    * The bytes of the string are decoded from a per-thread
+    * scratch array, so the only allocation is the string itself.
     * @param offset the byte offset within the page
     * @return the string value at that offset
     */
-   public synchronized String getString(int offset) {
-      contents.position(offset);
-      int len = contents.getInt();
-      byte[] byteval = new byte[len];
-      contents.get(byteval);
-      return new String(byteval);
+   public String getString(int offset) {
+      int len = contents.getInt(offset);
+      byte[] buf = scratch.get();
+      if (buf == null || buf.length < len) {
+         buf = new byte[Math.max(len, BLOCK_SIZE)];
+         scratch.set(buf);
+      }
+      int pos = offset + INT_SIZE;
+      for (int i=0; i<len; i++)
+         buf[i] = contents.get(pos + i);
+      return new String(buf, 0, len, CHARSET);
    }
    
    /**
     * Writes a string to the specified offset on the page.
+    * A string of ASCII chars is copied directly into the page,
+    * without an intermediate byte array;
+    * other strings are encoded by the charset.
     * @param offset the byte offset within the page
     * @param val the string to be written to the page
     */
-   public synchronized void setString(int offset, String val) {
-      contents.position(offset);
-      byte[] byteval = val.getBytes();
-      contents.putInt(byteval.length);
-      contents.put(byteval);
+   public void setString(int offset, String val) {
+      int len = val.length();
+      int pos = offset + INT_SIZE;
+      if (ASCII_COMPATIBLE && isAscii(val)) {
+         contents.putInt(offset, len);
+         for (int i=0; i<len; i++)
+            contents.put(pos + i, (byte) val.charAt(i));
+      }
+      else {
+         byte[] byteval = val.getBytes(CHARSET);
+         contents.putInt(offset, byteval.length);
+         for (int i=0; i<byteval.length; i++)
+            contents.put(pos + i, byteval[i]);
+      }
+   }
+   
+   private static boolean isAscii(String val) {
+      for (int i=0; i<val.length(); i++)
+         if (val.charAt(i) >= 0x80)
+            return false;
+      return true;
+   }
+   
+   private static boolean isAsciiCompatible() {
+      char[] chars = new char[0x80];
+      for (int i=0; i<chars.length; i++)
+         chars[i] = (char) i;
+      byte[] bytes = new String(chars).getBytes(CHARSET);
+      if (bytes.length != chars.length)
+         return false;
+      for (int i=0; i<bytes.length; i++)
+         if (bytes[i] != i)
+            return false;
+      return true;
    }
 }
@@ -0,0 +1,157 @@
+package simpledb.file;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A source of pages whose contents are frames of a few
+ * large off-heap segments, instead of a direct buffer per page.
+ * Each segment is aligned to {@link #ALIGNMENT} bytes
+ * (on JDK 9 and later, where the alignment of a buffer can be found)
+ * and holds consecutive frames of {@link Page#BLOCK_SIZE} bytes.
+ * When a page is no longer needed, it is released,
+ * and its frame is handed out again by a later allocation;
+ * segments are never freed.
+ * Thus a pool of any size costs a few direct allocations,
+ * and pages that are needed only briefly cost none
+ * once the arena has enough frames.
+ * The block size is that of the database when the arena is created.
+ */
+public class PageArena {
+   /**
+    * The alignment of each segment,
+    * which is the size of a virtual-memory page on most platforms.
+    */
+   public static final int ALIGNMENT = 4096;
+
+   /**
+    * The largest size of a segment, in bytes.
+    */
+   public static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+   private static Method alignmentOffset = findAlignmentOffset();
+
+   private int blocksize = Page.BLOCK_SIZE;
+   private int segmentPages;
+   private Deque<ByteBuffer> freeFrames = new ArrayDeque<ByteBuffer>();
+   private int numFrames = 0, numSegments = 0;
+
+   /**
+    * Creates an empty arena.
+    * @param segmentPages the number of frames in a segment
+    * that is allocated because the arena has run out of frames
+    */
+   public PageArena(int segmentPages) {
+      this.segmentPages = segmentPages;
+   }
+
+   /**
+    * Returns a page whose contents are a free frame,
+    * allocating a segment if there is none.
+    * The contents of the page are unspecified.
+    * @return the page
+    */
+   public synchronized Page allocate() {
+      if (freeFrames.isEmpty())
+         addFrames(segmentPages);
+      return new Page(freeFrames.pop());
+   }
+
+   /**
+    * Ensures that the arena has at least the specified number
+    * of free frames, allocating them in as few segments as possible.
+    * @param n the number of frames
+    */
+   public synchronized void reserve(int n) {
+      if (freeFrames.size() < n)
+         addFrames(n - freeFrames.size());
+   }
+
+   /**
+    * Returns the frame of the specified page to the arena.
+    * The page must have been allocated by this arena,
+    * and must not be used afterwards.
+    * @param p the page
+    */
+   public synchronized void release(Page p) {
+      freeFrames.push(p.frame());
+   }
+
+   /**
+    * Returns the number of frames in the arena's segments.
+    * @return the number of frames
+    */
+   public synchronized int frames() {
+      return numFrames;
+   }
+
+   /**
+    * Returns the number of frames that are not in use.
+    * @return the number of free frames
+    */
+   public synchronized int freeFrames() {
+      return freeFrames.size();
+   }
+
+   /**
+    * Returns the number of segments that have been allocated.
+    * @return the number of segments
+    */
+   public synchronized int segments() {
+      return numSegments;
+   }
+
+   /**
+    * Allocates segments holding the specified number of frames.
+    * Each segment is over-allocated by twice the alignment,
+    * since aligning it trims both of its ends.
+    */
+   private void addFrames(int n) {
+      int perSegment = (MAX_SEGMENT_SIZE - 2 * ALIGNMENT) / blocksize;
+      while (n > 0) {
+         int count = Math.min(n, perSegment);
+         ByteBuffer segment = ByteBuffer.allocateDirect(count * blocksize + 2 * ALIGNMENT);
+         int start = alignedStart(segment);
+         for (int i=0; i<count; i++) {
+            ByteBuffer frame = segment.duplicate();
+            frame.position(start + i * blocksize);
+            frame.limit(start + (i + 1) * blocksize);
+            freeFrames.add(frame.slice());
+         }
+         numFrames += count;
+         numSegments++;
+         n -= count;
+      }
+   }
+
+   /**
+    * Returns the index of the first byte of the segment
+    * whose address is a multiple of the alignment,
+    * or 0 if the address cannot be found.
+    */
+   private static int alignedStart(ByteBuffer segment) {
+      if (alignmentOffset == null)
+         return 0;
+      try {
+         int offset = (Integer) alignmentOffset.invoke(segment, 0, ALIGNMENT);
+         return offset == 0 ? 0 : ALIGNMENT - offset;
+      }
+      catch (ReflectiveOperationException e) {
+         return 0;
+      }
+   }
+
+   /**
+    * Looks up ByteBuffer.alignmentOffset, which was added in JDK 9,
+    * so that the arena still compiles and runs on JDK 8.
+    */
+   private static Method findAlignmentOffset() {
+      try {
+         return ByteBuffer.class.getMethod("alignmentOffset", int.class, int.class);
+      }
+      catch (NoSuchMethodException e) {
+         return null;
+      }
+   }
+}
@@ -0,0 +1,136 @@
+package simpledb.file;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A temporary table, as seen by the {@link FileMgr}.
+ * The table has no file of its own;
+ * its blocks are stored in extents of the shared {@link TempSpace}.
+ * Block n of the table is stored in block n % E of
+ * the table's (n / E)th extent, where E is the extent size.
+ * A temporary table is never forced,
+ * since its contents need not survive a crash.
+ */
+class TempFile extends DbFile {
+   private TempSpace space;
+   private List<Integer> extents = new ArrayList<Integer>();
+   private volatile int numblocks = 0;
+
+   /**
+    * Creates an empty temporary table.
+    * @param f the file that the table would otherwise have; it is never created
+    * @param space the shared temp space
+    */
+   TempFile(File f, TempSpace space) {
+      super(f, 1, null);
+      this.space = space;
+   }
+
+   /**
+    * Reads the specified block of the table.
+    * A block that has never been written reads as zeros;
+    * this happens only when a block is read ahead
+    * after the table has been dropped.
+    */
+   void read(int blknum, ByteBuffer bb) throws IOException {
+      int physblk = physicalIfAllocated(blknum);
+      if (physblk >= 0)
+         space.file().read(physblk, bb);
+      else {
+         bb.clear();
+         while (bb.hasRemaining())
+            bb.put((byte) 0);
+      }
+   }
+
+   /**
+    * Reads consecutive blocks of the table.
+    * Blocks that are also consecutive in the shared file
+    * (which they are within an extent) are read
+    * with a single scatter read.
+    */
+   void read(int blknum, ByteBuffer[] bbs) throws IOException {
+      int i = 0;
+      while (i < bbs.length) {
+         int physblk = physicalIfAllocated(blknum + i);
+         if (physblk < 0) {
+            read(blknum + i, bbs[i]);
+            i++;
+            continue;
+         }
+         int j = i + 1;
+         while (j < bbs.length && physicalIfAllocated(blknum + j) == physblk + (j - i))
+            j++;
+         space.file().read(physblk, Arrays.copyOfRange(bbs, i, j));
+         i = j;
+      }
+   }
+
+   void write(int blknum, ByteBuffer bb) throws IOException {
+      space.file().write(physical(blknum), bb);
+      synchronized (this) {
+         if (blknum >= numblocks)
+            numblocks = blknum + 1;
+      }
+   }
+
+   /**
+    * Writes consecutive blocks of the table, one at a time,
+    * since they need not be consecutive in the shared file.
+    */
+   void write(int blknum, ByteBuffer[] bbs) throws IOException {
+      for (int i=0; i<bbs.length; i++)
+         write(blknum + i, bbs[i]);
+   }
+
+   synchronized int append(ByteBuffer bb) throws IOException {
+      int blknum = numblocks;
+      space.file().write(physical(blknum), bb);
+      numblocks = blknum + 1;
+      return blknum;
+   }
+
+   void force() {
+      // the contents of a temporary table need not be durable
+   }
+
+   int size() {
+      return numblocks;
+   }
+
+   boolean tryClose() {
+      return true;
+   }
+
+   /**
+    * Returns all of the table's extents to the temp space.
+    * The table is empty afterwards.
+    */
+   synchronized void free() {
+      for (int extent : extents)
+         space.free(extent);
+      extents.clear();
+      numblocks = 0;
+   }
+
+   private synchronized int physicalIfAllocated(int blknum) {
+      int extentsize = space.extentSize();
+      if (blknum / extentsize >= extents.size())
+         return -1;
+      return extents.get(blknum / extentsize) * extentsize + blknum % extentsize;
+   }
+
+   /**
+    * Returns the block of the shared file that holds
+    * the specified block of the table,
+    * allocating extents as needed.
+    */
+   private synchronized int physical(int blknum) {
+      int extentsize = space.extentSize();
+      while (extents.size() <= blknum / extentsize)
+         extents.add(space.allocate());
+      return extents.get(blknum / extentsize) * extentsize + blknum % extentsize;
+   }
+}
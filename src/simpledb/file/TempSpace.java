@@ -0,0 +1,73 @@
+package simpledb.file;
+
+import java.util.BitSet;
+
+/**
+ * The shared file that holds the blocks of all temporary tables.
+ * The file is divided into extents of a fixed number of blocks.
+ * Each temporary table is given extents as it grows,
+ * and returns them when it is dropped,
+ * so that the extents can be reused by later tables.
+ * Free extents are reused lowest-numbered first,
+ * so that the file grows only when every extent is in use.
+ */
+class TempSpace {
+   private DbFile file;
+   private int extentsize;
+   private int numextents = 0;
+   private BitSet free = new BitSet();
+
+   /**
+    * Creates a temp space that stores its extents in the specified file.
+    * @param file the shared file
+    * @param extentsize the number of blocks in an extent
+    */
+   TempSpace(DbFile file, int extentsize) {
+      this.file = file;
+      this.extentsize = extentsize;
+   }
+
+   /**
+    * Returns the shared file.
+    * @return the file holding the extents
+    */
+   DbFile file() {
+      return file;
+   }
+
+   /**
+    * Returns the number of blocks in an extent.
+    * @return the extent size
+    */
+   int extentSize() {
+      return extentsize;
+   }
+
+   /**
+    * Allocates an extent, reusing a free one if possible.
+    * @return the number of the extent
+    */
+   synchronized int allocate() {
+      int extent = free.nextSetBit(0);
+      if (extent < 0)
+         return numextents++;
+      free.clear(extent);
+      return extent;
+   }
+
+   /**
+    * Returns the specified extent to the free list.
+    * @param extent the number of the extent
+    */
+   synchronized void free(int extent) {
+      free.set(extent);
+   }
+
+   /**
+    * Returns the number of extents that are in use.
+    * @return the number of allocated extents
+    */
+   synchronized int extentsInUse() {
+      return numextents - free.cardinality();
+   }
+}
@@ -1,7 +1,8 @@
 package simpledb.index.btree;
 
 import static java.sql.Types.INTEGER;
-import simpledb.file.Block;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
 import simpledb.query.*;
@@ -31,6 +32,7 @@ public class BTreeIndex implements Index {
       // deal with the leaves
       String leaftbl = idxname + "leaf";
       leafTi = new TableInfo(leaftbl, leafsch);
+      SimpleDB.fileMgr().setFileClass(leafTi.fileName(), FileClass.BTREE_LEAF);
       if (tx.size(leafTi.fileName()) == 0)
          tx.append(leafTi.fileName(), new BTPageFormatter(leafTi, -1));
 
@@ -40,6 +42,7 @@ public class BTreeIndex implements Index {
       dirsch.add("dataval", leafsch);
       String dirtbl = idxname + "dir";
       dirTi = new TableInfo(dirtbl, dirsch);
+      SimpleDB.fileMgr().setFileClass(dirTi.fileName(), FileClass.BTREE_DIR);
       rootblk = new Block(dirTi.fileName(), 0);
       if (tx.size(dirTi.fileName()) == 0)
          // create new root block
@@ -1,6 +1,8 @@
 package simpledb.index.hash;
 
 import cengiz.LogMan;
+import simpledb.server.SimpleDB;
+import simpledb.file.FileClass;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
 import simpledb.query.*;
@@ -52,6 +54,7 @@ public class HashIndex implements Index {
 		int bucket = searchkey.hashCode() % NUM_BUCKETS;
 		String tblname = idxname + bucket;
 		TableInfo ti = new TableInfo(tblname, sch);
+		SimpleDB.fileMgr().setFileClass(ti.fileName(), FileClass.HASH_BUCKET);
 		ts = new TableScan(ti, tx);
 	}
 
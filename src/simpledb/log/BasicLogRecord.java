@@ -11,7 +11,10 @@ import simpledb.file.Page;
  * and {@link #nextString() nextString} read the values 
  * sequentially.
  * Thus the client is responsible for knowing how many values
- * are in the log record, and what their types are.
+ * are in the log record, and what their types are;
+ * they are the values written by a {@link LogWriter}.
+ * The values are decoded directly from the page,
+ * so reading an integer allocates nothing.
  * @author Edward Sciore
  */
 public class BasicLogRecord {
@@ -30,6 +33,15 @@ public class BasicLogRecord {
       this.pos = pos;
    }
    
+   /**
+    * Moves the record to the specified position of its page,
+    * so that a {@link LogIterator} can reuse it for the next record.
+    * @param pos the position of the log record
+    */
+   void reset(int pos) {
+      this.pos = pos;
+   }
+   
    /**
     * Returns the next value of the current log record, 
     * assuming it is an integer.
@@ -0,0 +1,39 @@
+package simpledb.log;
+
+import simpledb.server.SimpleDB;
+
+/**
+ * The background thread that writes the log.
+ * The flusher writes the full pages of the log manager's ring,
+ * so that appending threads never write the log themselves.
+ * It also flushes the log for group commit:
+ * threads that need their log records on disk wait in
+ * {@link LogMgr#flush(long)}; the flusher writes the log tail and
+ * forces the log file once for all of them.
+ * Before flushing, the flusher waits for
+ * {@link SimpleDB#GROUP_COMMIT_WINDOW} microseconds,
+ * so that more threads can join the batch;
+ * with a window of zero, a batch consists of the threads that
+ * started waiting while the previous batch was being forced.
+ */
+class LogFlusher extends Thread {
+   private LogMgr logMgr;
+
+   /**
+    * Creates a daemon flusher for the specified log.
+    * @param logMgr the log manager
+    */
+   LogFlusher(LogMgr logMgr) {
+      super("simpledb-logflusher");
+      this.logMgr = logMgr;
+      setDaemon(true);
+   }
+
+   public void run() {
+      try {
+         while (true)
+            logMgr.flushBatch();
+      }
+      catch (InterruptedException e) {}
+   }
+}
@@ -1,19 +1,37 @@
 package simpledb.log;
 
 import static simpledb.file.Page.INT_SIZE;
+import simpledb.server.SimpleDB;
 import simpledb.file.*;
 import java.util.Iterator;
 
 /**
  * A class that provides the ability to move through the
- * records of the log file in reverse order.
+ * records of the log file, either in reverse order
+ * or, starting after a given LSN, in the order they were appended.
+ * The iterator reads the log into a page borrowed from
+ * the file manager, which it returns when it is closed;
+ * a record returned by the iterator must not be used after that.
+ * The iterator returns the same {@link BasicLogRecord} object
+ * for each record, so a record must be read
+ * before hasNext or next is called again.
+ * Padding records, which fill the space of records
+ * that could not be written, are skipped.
  * 
  * @author Edward Sciore
  */
-class LogIterator implements Iterator<BasicLogRecord> {
+public class LogIterator implements Iterator<BasicLogRecord>, AutoCloseable {
+   private LogMgr logmgr;
    private Block blk;
-   private Page pg = new Page();
+   private Page pg;
    private int currentrec;
+   private BasicLogRecord rec;
+   private long lsn;
+   private boolean forward = false;
+   private int lastblk;
+   private long afterLSN;
+   private int[] pointers;  // the positions of the pointers of the current block's records, oldest first
+   private int numrecs;
    
    /**
     * Creates an iterator for the records in the log file,
@@ -21,19 +39,57 @@ class LogIterator implements Iterator<BasicLogRecord> {
     * This constructor is called exclusively by
     * {@link LogMgr#iterator()}.
     */
-   LogIterator(Block blk) {
+   LogIterator(LogMgr logmgr, Block blk) {
+      this.logmgr = logmgr;
       this.blk = blk;
-      pg.read(blk);
+      allocatePage();
+      try {
+         logmgr.read(pg, blk);
+      }
+      catch (RuntimeException e) {
+         close();
+         throw e;
+      }
       currentrec = pg.getInt(LogMgr.LAST_POS);
    }
    
    /**
-    * Determines if the current log record
-    * is the earliest record in the log file.
-    * @return true if there is an earlier record
+    * Creates an iterator that moves forward through the records
+    * of the log file whose LSN is greater than the specified LSN,
+    * up to the end of the specified block.
+    * This constructor is called exclusively by
+    * {@link LogMgr#iterator(long)}.
+    */
+   LogIterator(LogMgr logmgr, Block blk, int lastblk, long afterLSN) {
+      this.logmgr = logmgr;
+      this.forward = true;
+      this.lastblk = lastblk;
+      this.afterLSN = afterLSN;
+      pointers = new int[Page.BLOCK_SIZE / INT_SIZE];
+      this.blk = new Block(blk.fileName(), blk.number()-1);
+      allocatePage();
+      try {
+         moveToNextBlock();
+      }
+      catch (RuntimeException e) {
+         close();
+         throw e;
+      }
+   }
+   
+   /**
+    * Determines if there is another log record to return:
+    * an earlier one, or, for a forward iterator, a later one.
+    * @return true if there is another record
     */
    public boolean hasNext() {
-      return currentrec>0 || blk.number()>0;
+      if (forward) {
+         if (currentrec == numrecs && blk.number() < lastblk)
+            moveToNextBlock();
+         return currentrec < numrecs;
+      }
+      skipPadding();
+      return currentrec>0;
    }
    
    /**
@@ -41,26 +97,124 @@ class LogIterator implements Iterator<BasicLogRecord> {
     * If the current log record is the earliest in its block,
     * then the method moves to the next oldest block,
     * and returns the log record from there.
-    * @return the next earliest log record
+    * A forward iterator moves to the next later record instead.
+    * @return the next log record
     */
    public BasicLogRecord next() {
-      if (currentrec == 0) 
-         moveToNextBlock();
+      if (forward)
+         return nextForward();
+      skipPadding();
+      lsn = (long) blk.number() * Page.BLOCK_SIZE + currentrec + INT_SIZE;
       currentrec = pg.getInt(currentrec);
-      return new BasicLogRecord(pg, currentrec+INT_SIZE);
+      rec.reset(currentrec+INT_SIZE);
+      return rec;
+   }
+   
+   /**
+    * Returns the LSN of the record that was
+    * returned by the last call to next.
+    * @return the LSN of the current record
+    */
+   public long lsn() {
+      return lsn;
    }
    
    public void remove() {
       throw new UnsupportedOperationException();
    }
    
+   /**
+    * Returns the iterator's page to the file manager.
+    */
+   public void close() {
+      if (pg != null)
+         SimpleDB.fileMgr().releasePage(pg);
+      pg = null;
+   }
+   
+   /**
+    * Borrows the iterator's page from the file manager.
+    * The page is borrowed by the constructors rather than
+    * when the object is created, so that a constructor
+    * that fails can return it.
+    */
+   private void allocatePage() {
+      pg = SimpleDB.fileMgr().allocatePage();
+      rec = new BasicLogRecord(pg, 0);
+   }
+   
    /**
     * Moves to the next log block in reverse order,
     * and positions it after the last record in that block.
+    * A forward iterator moves to the next later block
+    * that has a record to return, if there is one,
+    * and positions it before the first such record.
     */
    private void moveToNextBlock() {
+      if (forward) {
+         while (currentrec == numrecs && blk.number() < lastblk) {
+            blk = new Block(blk.fileName(), blk.number()+1);
+            logmgr.read(pg, blk);
+            findRecords();
+         }
+         return;
+      }
       blk = new Block(blk.fileName(), blk.number()-1);
-      pg.read(blk);
+      logmgr.read(pg, blk);
       currentrec = pg.getInt(LogMgr.LAST_POS);
    }
+   
+   /**
+    * Moves past the padding records before the current position,
+    * and past the start of the current block if need be,
+    * so that the position is at the start of a block
+    * only if the block is the first in the log.
+    */
+   private void skipPadding() {
+      while (true) {
+         if (currentrec == 0) {
+            if (blk.number() == 0)
+               return;
+            moveToNextBlock();
+         }
+         else if (pg.getInt(pg.getInt(currentrec) + INT_SIZE) == LogMgr.PADDING)
+            currentrec = pg.getInt(currentrec);
+         else
+            return;
+      }
+   }
+   
+   /**
+    * Follows the pointers of the current block from its last
+    * record back to its first, and saves the positions of
+    * those that are not padding, oldest first.
+    * Then skips the records whose LSN is not greater than afterLSN.
+    */
+   private void findRecords() {
+      numrecs = 0;
+      for (int p = pg.getInt(LogMgr.LAST_POS); p != 0; p = pg.getInt(p))
+         if (pg.getInt(pg.getInt(p) + INT_SIZE) != LogMgr.PADDING)
+            pointers[numrecs++] = p;
+      for (int i=0; i<numrecs/2; i++) {
+         int tmp = pointers[i];
+         pointers[i] = pointers[numrecs-1-i];
+         pointers[numrecs-1-i] = tmp;
+      }
+      currentrec = 0;
+      while (currentrec < numrecs && lsnOf(pointers[currentrec]) <= afterLSN)
+         currentrec++;
+   }
+   
+   private BasicLogRecord nextForward() {
+      if (currentrec == numrecs)
+         moveToNextBlock();
+      int p = pointers[currentrec++];
+      lsn = lsnOf(p);
+      rec.reset(pg.getInt(p)+INT_SIZE);
+      return rec;
+   }
+   
+   private long lsnOf(int pointer) {
+      return (long) blk.number() * Page.BLOCK_SIZE + pointer + INT_SIZE;
+   }
 }
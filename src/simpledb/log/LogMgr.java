@@ -4,6 +4,9 @@ import simpledb.server.SimpleDB;
 import simpledb.file.*;
 import static simpledb.file.Page.*;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * The low-level log manager.
@@ -13,24 +16,75 @@ import java.util.*;
  * The log manager does not understand the meaning of these
  * values, which are written and read by the
  * {@link simpledb.tx.recovery.RecoveryMgr recovery manager}.
+ * <p>
+ * The LSN of a log record is the byte offset in the log file
+ * just past the end of the record, so LSNs increase with every record.
+ * The log manager keeps the LSN up to which the log is on disk,
+ * so that flushing a record that is already there
+ * costs a single comparison.
+ * <p>
+ * The tail of the log is kept in a ring of
+ * {@link SimpleDB#LOG_BUFFER_PAGES} pages; log block n is
+ * held in page n % LOG_BUFFER_PAGES until it has been written.
+ * A thread appends a record without locking the log manager:
+ * it reserves the record's bytes by advancing the tail of the log
+ * with a compare-and-set, copies the record into its
+ * reserved bytes, concurrently with the other appending threads,
+ * and marks the record as completed.
+ * The thread that writes the log publishes the completed records
+ * in LSN order, up to the first one that is still being copied,
+ * so that it writes only a prefix of the log in which every
+ * record is complete.
+ * Full pages are written by a {@link LogFlusher}, several
+ * consecutive pages per write, so an append does no I/O;
+ * it waits only if every page of the ring is full.
+ * <p>
+ * Unless {@link SimpleDB#GROUP_COMMIT} is false, the log is
+ * flushed by group commit: a thread that needs its records
+ * on disk asks the flusher to flush the log, and waits.
+ * The flusher writes and forces the log once for all the threads
+ * that are waiting, including those that started waiting
+ * while it was forcing the previous batch, or during the
+ * {@link SimpleDB#GROUP_COMMIT_WINDOW group commit window}.
+ * Thus concurrent commits share a disk sync instead of
+ * taking one each.
  * @author Edward Sciore
  */
-public class LogMgr implements Iterable<BasicLogRecord> {
+public class LogMgr {
    /**
     * The location where the pointer to the last integer in the page is.
     * A value of 0 means that the pointer is the first value in the page.
     */
    public static final int LAST_POS = 0;
 
+   /**
+    * The value that begins a padding record.
+    * If a record cannot be written into its reserved bytes,
+    * they are filled with a padding record instead,
+    * which log iterators skip.
+    * A log record must therefore not begin with this value.
+    */
+   public static final int PADDING = Integer.MIN_VALUE;
+
    private String logfile;
-   private Page mypage = new Page();
-   private Block currentblk;
-   private int currentpos;
+   private Page[] ring;
+   private int writeBatch;                // the number of full pages that wakes the flusher
+   private AtomicLong tail;               // the LSN up to which bytes have been reserved
+   private AtomicIntegerArray completed;  // the length of each completed record that is not yet published
+   private long publishedLSN;             // the records up to this LSN are complete in the ring
+   private volatile long writtenLSN;      // the records up to this LSN have been written
+   private volatile long flushedLSN;      // the records up to this LSN are on disk
+   private long requestedLSN;             // the LSN that waiting threads need on disk
+   private boolean spaceWanted = false;   // an appending thread is waiting for a free page
+   private RuntimeException failure = null;
+   private Object writeLock = new Object();
+   private LogFlusher flusher;
+   private ThreadLocal<LogWriter> writers = new ThreadLocal<LogWriter>();
 
    /**
     * Creates the manager for the specified log file.
     * If the log file does not yet exist, it is created
-    * with an empty first block.
+    * with an empty first block when the log is first written.
     * This constructor depends on a {@link FileMgr} object
     * that it gets from the method
     * {@link simpledb.server.SimpleDB#fileMgr()}.
@@ -42,131 +96,396 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     */
    public LogMgr(String logfile) {
       this.logfile = logfile;
+      int numpages = Math.max(2, SimpleDB.LOG_BUFFER_PAGES);
+      PageArena arena = new PageArena(numpages);
+      ring = new Page[numpages];
+      for (int i=0; i<numpages; i++)
+         ring[i] = arena.allocate();
+      completed = new AtomicIntegerArray(numpages * BLOCK_SIZE);
+      writeBatch = Math.max(1, numpages / 2);
       int logsize = SimpleDB.fileMgr().size(logfile);
-      if (logsize == 0)
-         appendNewBlock();
+      long lsn;
+      if (logsize == 0) {
+         ring[0].setInt(LAST_POS, 0);
+         lsn = INT_SIZE;
+         writtenLSN = flushedLSN = requestedLSN = 0;
+      }
       else {
-         currentblk = new Block(logfile, logsize-1);
-         mypage.read(currentblk);
-         currentpos = getLastRecordPosition() + INT_SIZE;
+         Block lastblk = new Block(logfile, logsize-1);
+         Page p = pageOf(lastblk.number());
+         p.read(lastblk);
+         lsn = (long) lastblk.number() * BLOCK_SIZE + p.getInt(LAST_POS) + INT_SIZE;
+         writtenLSN = flushedLSN = requestedLSN = lsn;
       }
+      tail = new AtomicLong(lsn);
+      publishedLSN = lsn;
+      flusher = new LogFlusher(this);
+      flusher.start();
    }
 
    /**
     * Ensures that the log records corresponding to the
     * specified LSN has been written to disk.
     * All earlier log records will also be written to disk.
+    * If the record is already on disk, the method
+    * returns immediately, without locking the log manager.
+    * With group commit, the thread waits until the flusher
+    * has forced the record.
     * @param lsn the LSN of a log record
     */
-   public void flush(int lsn) {
-      if (lsn >= currentLSN())
-         flush();
+   public void flush(long lsn) {
+      if (lsn <= flushedLSN)
+         return;
+      if (!SimpleDB.GROUP_COMMIT) {
+         synchronized (writeLock) {
+            if (lsn > flushedLSN)
+               force(writeThrough(lsn));
+         }
+         wrote();
+         return;
+      }
+      synchronized (this) {
+         if (lsn > requestedLSN) {
+            requestedLSN = lsn;
+            notifyAll();
+         }
+         boolean interrupted = false;
+         while (flushedLSN < lsn) {
+            if (failure != null)
+               throw failure;
+            try {
+               wait();
+            }
+            catch (InterruptedException e) {
+               interrupted = true;  // the record must still reach the disk
+            }
+         }
+         if (interrupted)
+            Thread.currentThread().interrupt();
+      }
    }
 
    /**
     * Returns an iterator for the log records,
     * which will be returned in reverse order starting with the most recent.
-    * @see java.lang.Iterable#iterator()
+    * The records appended by other threads while the
+    * iterator is being created may or may not be included.
+    * The iterator holds a page until it is closed,
+    * so it should be used in a try-with-resources statement.
+    * @return an iterator for the log records
+    */
+   public LogIterator iterator() {
+      long lsn = tail.get();
+      flush(lsn);
+      return new LogIterator(this, new Block(logfile, blockOf(lsn)));
+   }
+
+   /**
+    * Returns an iterator for the log records that follow
+    * the specified LSN, which will be returned in the
+    * order they were appended.
+    * As with {@link #iterator()}, the records appended by other
+    * threads while the iterator is being created may or may not be included.
+    * As with {@link #iterator()}, the iterator should be closed.
+    * @param lsn the LSN of a log record, or 0 for the start of the log
+    * @return an iterator for the later records
     */
-   public synchronized Iterator<BasicLogRecord> iterator() {
-      flush();
-      return new LogIterator(currentblk);
+   public LogIterator iterator(long lsn) {
+      long last = tail.get();
+      flush(last);
+      return new LogIterator(this, new Block(logfile, blockOf(lsn)), blockOf(last), lsn);
    }
 
    /**
     * Appends a log record to the file.
     * The record contains an arbitrary array of strings and integers.
+    * This method boxes the integers, so the log records
+    * of the recovery manager use {@link #append(Loggable)} instead.
+    * @param rec the list of values
+    * @return the LSN of the record
+    */
+   public long append(Object[] rec) {
+      return append(new ArrayRecord(rec));
+   }
+
+   /**
+    * Appends a log record to the file.
+    * The record writes its values directly into the page
+    * of the ring that holds its reserved bytes,
+    * through a writer that belongs to the appending thread.
     * The method also writes an integer to the end of each log record whose value
     * is the offset of the corresponding integer for the previous log record.
     * These integers allow log records to be read in reverse order.
-    * @param rec the list of values
-    * @return the LSN of the final value
+    * If the record fails to write itself, or writes fewer bytes
+    * than its size, it is replaced by a {@link #PADDING} record
+    * before it becomes visible, and the method throws an exception.
+    * @param rec the record
+    * @return the LSN of the record
     */
-   public synchronized int append(Object[] rec) {
-      int recsize = INT_SIZE;  // 4 bytes for the integer that points to the previous log record
-      for (Object obj : rec)
-         recsize += size(obj);
-      if (currentpos + recsize >= BLOCK_SIZE){ // the log record doesn't fit,
-         flush();        // so move to the next block.
-         appendNewBlock();
+   public long append(Loggable rec) {
+      int size = rec.logSize();
+      if (size < INT_SIZE)
+         throw new RuntimeException("log record of " + size + " bytes is too small");
+      int recsize = size + INT_SIZE;  // 4 bytes for the integer that points to the previous log record
+      if (INT_SIZE + recsize >= BLOCK_SIZE)
+         throw new RuntimeException("log record of " + recsize + " bytes does not fit in a block");
+      long prev, start;
+      do {
+         prev = tail.get();
+         start = prev;
+         if (offsetOf(prev) + recsize >= BLOCK_SIZE) { // the log record doesn't fit,
+            start = (long) (blockOf(prev) + 1) * BLOCK_SIZE + INT_SIZE;  // so move to the next block.
+            awaitPage(blockOf(start));
+         }
+      } while (!tail.compareAndSet(prev, start + recsize));
+
+      Page p = pageOf(blockOf(start));
+      LogWriter w = writers.get();
+      if (w == null) {
+         w = new LogWriter();
+         writers.set(w);
       }
-      for (Object obj : rec)
-         appendVal(obj);
-      finalizeRecord();
-      return currentLSN();
+      int pos = offsetOf(start) + recsize - INT_SIZE;
+      w.reset(p, offsetOf(start), pos);
+      boolean written = false;
+      try {
+         rec.writeTo(w);
+         if (w.position() != pos)
+            throw new RuntimeException("log record is smaller than its reserved size");
+         written = true;
+      }
+      finally {
+         if (!written)
+            p.setInt(offsetOf(start), PADDING);
+         p.setInt(pos, offsetOf(start) - INT_SIZE);
+         completed.set(indexOf(prev), (int) (start + recsize - prev));  // so that the log never stalls
+      }
+      if (start != prev && blockOf(start) - blockOf(writtenLSN) >= writeBatch)
+         synchronized (this) {
+            notifyAll();
+         }
+      return start + recsize;
    }
 
    /**
-    * Adds the specified value to the page at the position denoted by
-    * currentpos.  Then increments currentpos by the size of the value.
-    * @param val the integer or string to be added to the page
+    * Waits until a thread asks for the log to be flushed,
+    * or until enough pages are full,
+    * or until an appending thread needs a free page.
+    * To flush the log, the flusher waits for the group commit
+    * window so that other threads can join, and then writes
+    * and forces every record appended by then;
+    * otherwise it writes the full pages.
+    * This method is called repeatedly by the {@link LogFlusher}.
+    * @throws InterruptedException if the flusher is interrupted
     */
-   private void appendVal(Object val) {
-      if (val instanceof String)
-         mypage.setString(currentpos, (String)val);
-      else
-         mypage.setInt(currentpos, (Integer)val);
-      currentpos += size(val);
+   void flushBatch() throws InterruptedException {
+      long target;
+      synchronized (this) {
+         while (requestedLSN <= flushedLSN && !spaceWanted
+                && blockOf(tail.get()) - blockOf(writtenLSN) < writeBatch)
+            wait();
+         target = requestedLSN > flushedLSN ? requestedLSN : 0;
+         failure = null;
+      }
+      if (target > 0 && SimpleDB.GROUP_COMMIT_WINDOW > 0)
+         TimeUnit.MICROSECONDS.sleep(SimpleDB.GROUP_COMMIT_WINDOW);
+      boolean progress = true;
+      try {
+         synchronized (writeLock) {
+            if (target > 0)
+               force(writeThrough(target));
+            else
+               progress = writeFullPages();
+         }
+      }
+      catch (RuntimeException e) {
+         synchronized (this) {
+            failure = e;                 // the waiting threads fail,
+            requestedLSN = flushedLSN;   // and later threads try again
+            spaceWanted = false;
+            notifyAll();
+         }
+         return;
+      }
+      wrote();
+      if (!progress)
+         Thread.yield();  // the full pages are still being copied into
    }
 
    /**
-    * Calculates the size of the specified integer or string.
-    * @param val the value
-    * @return the size of the value, in bytes
+    * Reads the specified block of the log into a page,
+    * without overlapping a write of the block.
+    * This method is called exclusively by {@link LogIterator}.
+    * @param p the page
+    * @param blk the log block
     */
-   private int size(Object val) {
-      if (val instanceof String) {
-         String sval = (String) val;
-         return STR_SIZE(sval.length());
+   void read(Page p, Block blk) {
+      synchronized (writeLock) {
+         p.read(blk);
       }
-      else
-         return INT_SIZE;
    }
 
    /**
-    * Returns the LSN of the most recent log record.
-    * As implemented, the LSN is the block number where the record is stored.
-    * Thus every log record in a block has the same LSN.
-    * @return the LSN of the most recent log record
+    * Waits until the page for the specified block is free,
+    * that is, until the block that the page held before
+    * has been written.
+    * @param blknum the number of the log block
     */
-   private int currentLSN() {
-      return currentblk.number();
+   private void awaitPage(int blknum) {
+      if (blknum < blockOf(writtenLSN) + ring.length)
+         return;
+      synchronized (this) {
+         boolean interrupted = false;
+         while (blknum >= blockOf(writtenLSN) + ring.length) {
+            if (failure != null)
+               throw failure;
+            if (!spaceWanted) {
+               spaceWanted = true;  // wake the flusher, but not the other waiting threads
+               notifyAll();
+            }
+            try {
+               wait();
+            }
+            catch (InterruptedException e) {
+               interrupted = true;
+            }
+         }
+         if (interrupted)
+            Thread.currentThread().interrupt();
+      }
    }
 
    /**
-    * Writes the current page to the log file.
+    * Publishes the completed records that follow the published ones,
+    * in LSN order, stopping at the first record that is still
+    * being copied into the ring.
+    * Each record becomes the last record of its page.
+    * The caller must hold the write lock.
+    * @return the LSN up to which the records are published
     */
-   private void flush() {
-      mypage.write(currentblk);
+   private long publish() {
+      long lsn = publishedLSN;
+      int len;
+      while ((len = completed.get(indexOf(lsn))) != 0) {
+         completed.set(indexOf(lsn), 0);
+         lsn += len;
+         pageOf(blockOf(lsn)).setInt(LAST_POS, offsetOf(lsn) - INT_SIZE);
+      }
+      publishedLSN = lsn;
+      return lsn;
    }
 
    /**
-    * Clear the current page, and append it to the log file.
+    * Writes the full pages of the ring that have not been written.
+    * The caller must hold the write lock.
+    * @return false if there was no page to write
     */
-   private void appendNewBlock() {
-      setLastRecordPosition(0);
-      currentpos = INT_SIZE;
-      currentblk = mypage.append(logfile);
+   private boolean writeFullPages() {
+      int first = blockOf(writtenLSN);
+      int last = blockOf(publish()) - 1;
+      if (last < first)
+         return false;
+      writeBlocks(first, last);
+      writtenLSN = (long) (last + 1) * BLOCK_SIZE;
+      return true;
    }
 
    /**
-    * Sets up a circular chain of pointers to the records in the page.
-    * There is an integer added to the end of each log record
-    * whose value is the offset of the previous log record.
-    * The first four bytes of the page contain an integer whose value
-    * is the offset of the integer for the last log record in the page.
+    * Writes the unwritten records of the ring,
+    * including those in the last, partly-filled page,
+    * after waiting for the records up to the specified LSN
+    * to be copied into the ring.
+    * The wait is short, since the appending threads
+    * do not block while copying.
+    * The caller must hold the write lock.
+    * @param lsn the LSN up to which the log must be written
+    * @return the LSN up to which the log has been written
     */
-   private void finalizeRecord() {
-      mypage.setInt(currentpos, getLastRecordPosition());
-      setLastRecordPosition(currentpos);
-      currentpos += INT_SIZE;
+   private long writeThrough(long lsn) {
+      for (int spins=0; publish() < lsn; spins++) {
+         if (spins < 16)
+            Thread.yield();
+         else
+            LockSupport.parkNanos(10000);
+      }
+      if (publishedLSN > writtenLSN) {
+         writeBlocks(blockOf(writtenLSN), blockOf(publishedLSN));
+         writtenLSN = publishedLSN;
+      }
+      return writtenLSN;
    }
 
-   private int getLastRecordPosition() {
-      return mypage.getInt(LAST_POS);
+   /**
+    * Writes the pages of the specified log blocks
+    * with a single write.
+    */
+   private void writeBlocks(int first, int last) {
+      Page[] pages = new Page[last - first + 1];
+      for (int i=0; i<pages.length; i++)
+         pages[i] = pageOf(first + i);
+      Page.write(new Block(logfile, first), pages);
+   }
+
+   /**
+    * Forces the log file to disk.
+    * The caller must hold the write lock.
+    * @param lsn the LSN up to which the log has been written
+    */
+   private void force(long lsn) {
+      SimpleDB.fileMgr().force(logfile);
+      flushedLSN = Math.max(flushedLSN, lsn);
+   }
+
+   /**
+    * Wakes the threads that wait for the log
+    * to be written or flushed.
+    */
+   private synchronized void wrote() {
+      spaceWanted = false;
+      notifyAll();
+   }
+
+   private Page pageOf(int blknum) {
+      return ring[blknum % ring.length];
+   }
+
+   private int indexOf(long lsn) {
+      return (int) (lsn % completed.length());
+   }
+
+   private static int blockOf(long lsn) {
+      return (int) (lsn / BLOCK_SIZE);
    }
 
-   private void setLastRecordPosition(int pos) {
-      mypage.setInt(LAST_POS, pos);
+   private static int offsetOf(long lsn) {
+      return (int) (lsn % BLOCK_SIZE);
+   }
+
+   /**
+    * A log record whose values are given as an array
+    * of integers and strings.
+    */
+   private static class ArrayRecord implements Loggable {
+      private Object[] vals;
+
+      ArrayRecord(Object[] vals) {
+         this.vals = vals;
+      }
+
+      public int logSize() {
+         int size = 0;
+         for (Object val : vals)
+            size += (val instanceof String) ? STR_SIZE(((String)val).length()) : INT_SIZE;
+         return size;
+      }
+
+      public void writeTo(LogWriter w) {
+         for (Object val : vals) {
+            if (val instanceof String)
+               w.writeString((String)val);
+            else
+               w.writeInt((Integer)val);
+         }
+      }
    }
 }
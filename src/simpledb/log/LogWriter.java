@@ -0,0 +1,70 @@
+package simpledb.log;
+
+import static simpledb.file.Page.*;
+import simpledb.file.Page;
+
+/**
+ * A class that writes the values of a log record
+ * into the log manager's buffer.
+ * It is the counterpart of {@link BasicLogRecord}:
+ * the values written by {@link #writeInt(int) writeInt} and
+ * {@link #writeString(String) writeString} are read back,
+ * in the same order, by nextInt and nextString.
+ * Each appending thread reuses a single writer,
+ * so writing a record allocates nothing.
+ */
+public class LogWriter {
+   private Page pg;
+   private int pos, end;
+
+   /**
+    * Positions the writer at the specified offset of a page.
+    * This method is called exclusively by {@link LogMgr}.
+    * @param pg the page of the log buffer
+    * @param pos the offset of the record's first value
+    * @param end the offset just past the bytes reserved for the values
+    */
+   void reset(Page pg, int pos, int end) {
+      this.pg = pg;
+      this.pos = pos;
+      this.end = end;
+   }
+
+   /**
+    * Returns the offset just past the last value written.
+    * @return the current offset in the page
+    */
+   int position() {
+      return pos;
+   }
+
+   /**
+    * Writes an integer as the next value of the record.
+    * @param val the integer
+    */
+   public void writeInt(int val) {
+      reserve(INT_SIZE);
+      pg.setInt(pos, val);
+      pos += INT_SIZE;
+   }
+
+   /**
+    * Writes a string as the next value of the record.
+    * @param val the string
+    */
+   public void writeString(String val) {
+      reserve(STR_SIZE(val.length()));
+      pg.setString(pos, val);
+      pos += STR_SIZE(val.length());
+   }
+
+   /**
+    * Checks that the next value fits in the record's reserved bytes,
+    * so that a record whose size was miscalculated
+    * cannot overwrite the record after it.
+    */
+   private void reserve(int size) {
+      if (pos + size > end)
+         throw new RuntimeException("log record is larger than its reserved size");
+   }
+}
@@ -0,0 +1,24 @@
+package simpledb.log;
+
+/**
+ * A log record that can write its own values into the log.
+ * The log manager reserves {@link #logSize()} bytes for the record,
+ * and then calls {@link #writeTo(LogWriter)} to write the values
+ * directly into its buffer, without boxing them.
+ */
+public interface Loggable {
+   /**
+    * Returns the number of bytes that the record's values occupy,
+    * using {@link simpledb.file.Page#INT_SIZE} for each integer and
+    * {@link simpledb.file.Page#STR_SIZE(int)} for each string.
+    * @return the size of the record's values, in bytes
+    */
+   int logSize();
+
+   /**
+    * Writes the record's values, in the order in which
+    * they will be read by a {@link BasicLogRecord}.
+    * @param w the writer positioned at the record's bytes
+    */
+   void writeTo(LogWriter w);
+}
@@ -17,6 +17,7 @@ public class SortScan implements Scan {
    private RecordComparator comp;
    private boolean hasmore1, hasmore2=false;
    private List<RID> savedposition;
+   private List<TempTable> runs;
    
    /**
     * Creates a sort scan, given a list of 1 or 2 runs.
@@ -27,6 +28,7 @@ public class SortScan implements Scan {
     */
    public SortScan(List<TempTable> runs, RecordComparator comp) {
       this.comp = comp;
+      this.runs = runs;
       s1 = (UpdateScan) runs.get(0).open();
       hasmore1 = s1.next();
       if (runs.size() > 1) {
@@ -83,13 +85,16 @@ public class SortScan implements Scan {
    }
    
    /**
-    * Closes the two underlying scans.
+    * Closes the two underlying scans,
+    * and drops the runs, which are no longer needed.
     * @see simpledb.query.Scan#close()
     */
    public void close() {
       s1.close();
       if (s2 != null)
          s2.close();
+      for (TempTable run : runs)
+         run.drop();
    }
    
    /**
@@ -9,6 +9,8 @@ import simpledb.query.*;
  * A temporary table is not registered in the catalog.
  * The class therefore has a method getTableInfo to return the 
  * table's metadata. 
+ * The table is dropped when its transaction ends,
+ * or earlier by calling {@link #drop()}.
  * @author Edward Sciore
  */
 public class TempTable {
@@ -26,6 +28,7 @@ public class TempTable {
       String tblname = nextTableName();
       ti = new TableInfo(tblname, sch);
       this.tx = tx;
+      tx.addTempFile(ti.fileName());
    }
    
    /**
@@ -43,6 +46,15 @@ public class TempTable {
       return ti;
    }
    
+   /**
+    * Drops the table, freeing its space.
+    * The table must not be used afterwards,
+    * and none of its scans may be open.
+    */
+   public void drop() {
+      tx.dropTempFile(ti.fileName());
+   }
+   
    private static synchronized String nextTableName() {
       nextTableNum++;
       return "temp" + nextTableNum;
@@ -6,6 +6,9 @@ import simpledb.server.SimpleDB;
  * A class containing static methods,
  * which estimate the optimal number of buffers
  * to allocate for a scan.
+ * The number of available buffers is read from the
+ * buffer manager at each call, so the estimates follow
+ * the pool when it is resized.
  * @author Edward Sciore
  */
 public class BufferNeeds {
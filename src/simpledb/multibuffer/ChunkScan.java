@@ -4,6 +4,7 @@ import static java.sql.Types.INTEGER;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
 import simpledb.file.Block;
+import simpledb.buffer.BufferRing;
 import simpledb.query.*;
 
 import java.util.ArrayList;
@@ -21,20 +22,39 @@ public class ChunkScan implements Scan {
    
    /**
     * Creates a chunk consisting of the specified pages. 
+    * The blocks of the chunk are read into the buffer pool
+    * together, before they are pinned.
     * @param ti the metadata for the chunked table
     * @param startbnum the starting block number
     * @param endbnum  the ending block number
     * @param tx the current transaction
     */ 
    public ChunkScan(TableInfo ti, int startbnum, int endbnum, Transaction tx) {
+      this(ti, startbnum, endbnum, tx, null);
+   }
+   
+   /**
+    * Creates a chunk consisting of the specified pages,
+    * which are read into buffers of the specified ring.
+    * The chunks of a large table share a ring
+    * the size of a chunk, so that each chunk
+    * replaces the previous one instead of the rest of the pool.
+    * @param ti the metadata for the chunked table
+    * @param startbnum the starting block number
+    * @param endbnum  the ending block number
+    * @param tx the current transaction
+    * @param ring the buffer ring, or null
+    */ 
+   public ChunkScan(TableInfo ti, int startbnum, int endbnum, Transaction tx, BufferRing ring) {
       pages = new ArrayList<RecordPage>();
       this.startbnum = startbnum;
       this.endbnum   = endbnum;
       this.sch = ti.schema();
       String filename = ti.fileName();
+      tx.load(new Block(filename, startbnum), endbnum - startbnum + 1, ring);
       for (int i=startbnum; i<=endbnum; i++) {
          Block blk = new Block(filename, i);
-         pages.add(new RecordPage(blk, ti, tx));
+         pages.add(new RecordPage(blk, ti, tx, ring));
       }
       beforeFirst();
    }
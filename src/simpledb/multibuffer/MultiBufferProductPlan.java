@@ -61,12 +61,13 @@ public class MultiBufferProductPlan implements Plan {
     * where C(p2) is the number of chunks of p2.
     * The method uses the current number of available buffers
     * to calculate C(p2), and so this value may differ
-    * when the query scan is opened.
+    * when the query scan is opened
+    * (in particular, if the pool has been resized since).
     * @see simpledb.query.Plan#blocksAccessed()
     */
    public int blocksAccessed() {
       // this guesses at the # of chunks
-      int avail = SimpleDB.bufferMgr().available();
+      int avail = Math.max(1, SimpleDB.bufferMgr().available());
       int size = new MaterializePlan(rhs, tx).blocksAccessed();
       int numchunks = size / avail;
       return rhs.blocksAccessed() +
@@ -1,5 +1,7 @@
 package simpledb.multibuffer;
 
+import simpledb.server.SimpleDB;
+import simpledb.buffer.*;
 import simpledb.tx.Transaction;
 import simpledb.record.TableInfo;
 import simpledb.query.*;
@@ -14,6 +16,7 @@ public class MultiBufferProductScan implements Scan {
    private TableInfo ti;
    private Transaction tx;
    private int chunksize, nextblknum, filesize;
+   private BufferRing ring = null;
    
    
    /**
@@ -28,6 +31,10 @@ public class MultiBufferProductScan implements Scan {
       this.tx = tx;
       filesize = tx.size(ti.fileName());
       chunksize = BufferNeeds.bestFactor(filesize);
+      BufferMgr bufferMgr = SimpleDB.bufferMgr();
+      if (SimpleDB.RING_SIZE > 0
+            && filesize * 100L > (long) bufferMgr.size() * SimpleDB.RING_THRESHOLD)
+         ring = bufferMgr.newRing(chunksize);
       beforeFirst();
    }
    
@@ -112,7 +119,7 @@ public class MultiBufferProductScan implements Scan {
       int end = nextblknum + chunksize - 1;
       if (end >= filesize)
          end = filesize - 1;
-      rhsscan = new ChunkScan(ti, nextblknum, end, tx);
+      rhsscan = new ChunkScan(ti, nextblknum, end, tx, ring);
       lhsscan.beforeFirst();
       prodscan = new ProductScan(lhsscan, rhsscan);
       nextblknum = end + 1;
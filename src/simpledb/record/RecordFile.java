@@ -1,12 +1,19 @@
 package simpledb.record;
 
+import simpledb.server.SimpleDB;
 import simpledb.file.Block;
+import simpledb.buffer.*;
 import simpledb.tx.Transaction;
 
 /**
  * Manages a file of records.
  * There are methods for iterating through the records
  * and accessing their contents.
+ * A file whose size exceeds {@link SimpleDB#RING_THRESHOLD} percent
+ * of the buffer pool is read and appended sequentially through a
+ * {@link BufferRing} of {@link SimpleDB#RING_SIZE} buffers,
+ * so that scanning it does not replace the rest of the pool;
+ * records accessed by RID use the whole pool as usual.
  * @author Edward Sciore
  */
 public class RecordFile {
@@ -15,6 +22,9 @@ public class RecordFile {
    private String filename;
    private RecordPage rp;
    private int currentblknum;
+   private int sequentialMoves = 0;
+   private int readAheadTo = 0;
+   private BufferRing ring = null;
    
    /**
     * Constructs an object to manage a file of records.
@@ -26,8 +36,11 @@ public class RecordFile {
       this.ti = ti;
       this.tx = tx;
       filename = ti.fileName();
-      if (tx.size(filename) == 0)
+      int size = tx.size(filename);
+      if (size == 0)
          appendBlock();
+      else
+         useRingIfLarge(size);
       moveTo(0);
    }
    
@@ -132,7 +145,7 @@ public class RecordFile {
     * @param rid a record identifier
     */
    public void moveToRid(RID rid) {
-      moveTo(rid.blockNumber());
+      moveTo(rid.blockNumber(), null);
       rp.moveToId(rid.id());
    }
    
@@ -146,11 +159,41 @@ public class RecordFile {
    }
    
    private void moveTo(int b) {
+      moveTo(b, ring);
+   }
+   
+   private void moveTo(int b, BufferRing r) {
       if (rp != null)
          rp.close();
+      if (b == currentblknum + 1)
+         sequentialMoves++;
+      else {
+         sequentialMoves = 0;
+         readAheadTo = 0;
+      }
       currentblknum = b;
       Block blk = new Block(filename, currentblknum);
-      rp = new RecordPage(blk, ti, tx);
+      rp = new RecordPage(blk, ti, tx, r);
+      if (sequentialMoves >= 2)
+         readAhead();
+   }
+   
+   /**
+    * Once the file is being read sequentially,
+    * asks for the next {@link SimpleDB#READ_AHEAD} blocks
+    * to be read in the background.
+    * Each block is requested only once.
+    * The blocks are requested in batches, each read with
+    * a single disk access: a new batch is requested
+    * when half of the previous one has been used.
+    */
+   private void readAhead() {
+      int from = Math.max(readAheadTo, currentblknum) + 1;
+      int last = currentblknum + SimpleDB.READ_AHEAD;
+      if (last - from + 1 < (SimpleDB.READ_AHEAD + 1) / 2)
+         return;
+      tx.prefetch(new Block(filename, from), last - from + 1, ring);
+      readAheadTo = last;
    }
    
    private boolean atLastBlock() {
@@ -159,6 +202,20 @@ public class RecordFile {
    
    private void appendBlock() {
       RecordFormatter fmtr = new RecordFormatter(ti);
-      tx.append(filename, fmtr);
+      Block blk = tx.append(filename, fmtr, ring);
+      useRingIfLarge(blk.number() + 1);
+   }
+   
+   /**
+    * Starts using a buffer ring once the file is large
+    * relative to the buffer pool.
+    * A file that grows, such as a temporary table being written,
+    * switches to the ring when it reaches that size.
+    */
+   private void useRingIfLarge(int numblocks) {
+      BufferMgr bufferMgr = SimpleDB.bufferMgr();
+      if (ring == null && SimpleDB.RING_SIZE > 0
+            && numblocks * 100L > (long) bufferMgr.size() * SimpleDB.RING_THRESHOLD)
+         ring = bufferMgr.newRing(SimpleDB.RING_SIZE);
    }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package simpledb.record;
 
 import static simpledb.file.Page.*;
 import simpledb.file.Block;
+import simpledb.buffer.BufferRing;
 import simpledb.tx.Transaction;
 
 /**
@@ -24,11 +25,22 @@ public class RecordPage {
      * @param tx the transaction performing the operations
      */
    public RecordPage(Block blk, TableInfo ti, Transaction tx) {
+      this(blk, ti, tx, null);
+   }
+   
+   /** Creates the record manager for the specified block,
+     * which is pinned through the specified buffer ring.
+     * @param blk a reference to the disk block
+     * @param ti the table's metadata
+     * @param tx the transaction performing the operations
+     * @param ring the scan's buffer ring, or null
+     */
+   public RecordPage(Block blk, TableInfo ti, Transaction tx, BufferRing ring) {
       this.blk = blk;
       this.ti = ti;
       this.tx = tx;
       slotsize = ti.recordLength() + INT_SIZE;
-      tx.pin(blk);
+      tx.pin(blk, ring);
   }
    
    /**
@@ -1,6 +1,6 @@
 package simpledb.server;
 
-import simpledb.file.FileMgr;
+import simpledb.file.*;
 import simpledb.buffer.*;
 import simpledb.index.planner.IndexUpdatePlanner;
 import simpledb.tx.Transaction;
@@ -8,6 +8,9 @@ import simpledb.log.LogMgr;
 import simpledb.metadata.MetadataMgr;
 import simpledb.opt.HeuristicQueryPlanner;
 import simpledb.planner.*;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.management.*;
 
 /**
  * The class that provides system-wide static global values.
@@ -24,16 +27,42 @@ import simpledb.planner.*;
  */
 public class SimpleDB {
    public static int BUFFER_SIZE = 8;
+   public static String BUFFER_POLICY = "lru";
+   public static int BUFFER_STRIPES = 0;
+   public static int PAGE_SIZE = 4096;
+   public static boolean MAPPED_FILES = false;
+   public static int READ_AHEAD = 4;
+   public static int RING_SIZE = 32;
+   public static int RING_THRESHOLD = 25;
+   public static int BG_WRITER_PERCENT = 25;
+   public static int BG_WRITER_MAX_PAGES = 16;
+   public static int BG_WRITER_DELAY = 100;
+   public static int EXTENT_SIZE = 64;
+   public static int MAX_OPEN_FILES = 256;
+   public static int TEMP_EXTENT_SIZE = 8;
    public static String LOG_FILE = "simpledb.log";
+   public static int LOG_BUFFER_PAGES = 8;
+   public static boolean GROUP_COMMIT = true;
+   public static int GROUP_COMMIT_WINDOW = 0;
+   public static boolean WARM_UP = true;
+   public static int CHECKPOINT_INTERVAL = 1000;
    
    private static FileMgr     fm;
    private static BufferMgr   bm;
    private static LogMgr      logm;
    private static MetadataMgr mdm;
+   private static Thread shutdownHook;
    
    /**
     * Initializes the system.
     * This method is called during system startup.
+    * If the database is new, it is created with
+    * blocks of {@link #PAGE_SIZE} bytes;
+    * otherwise the block size recorded when
+    * the database was created is used.
+    * Unless {@link #WARM_UP} is false, the blocks that were
+    * in the buffer pool at the last shutdown are then
+    * read back in the background.
     * @param dirname the name of the database directory
     */
    public static void init(String dirname) {
@@ -48,6 +77,9 @@ public class SimpleDB {
       }
       initMetadataMgr(isnew, tx);
       tx.commit();
+      if (WARM_UP)
+         bm.warmUp(fm.readHotPages());
+      saveHotPagesAtShutdown();
    }
    
    // The following initialization methods are useful for 
@@ -56,10 +88,16 @@ public class SimpleDB {
    
    /**
     * Initializes only the file manager.
+    * If {@link #MAPPED_FILES} is true, then the
+    * database files are accessed through memory mappings.
     * @param dirname the name of the database directory
     */
    public static void initFileMgr(String dirname) {
-      fm = new FileMgr(dirname);
+      if (MAPPED_FILES)
+         fm = new MappedFileMgr(dirname, PAGE_SIZE);
+      else
+         fm = new FileMgr(dirname, PAGE_SIZE);
+      registerIOStats();
    }
    
    /**
@@ -78,6 +116,7 @@ public class SimpleDB {
    public static void initFileLogAndBufferMgr(String dirname) {
       initFileAndLogMgr(dirname);
       bm = new BufferMgr(BUFFER_SIZE);
+      registerBufferMgr();
    }
    
    /**
@@ -95,6 +134,76 @@ public class SimpleDB {
    public static LogMgr      logMgr()    { return logm; }
    public static MetadataMgr mdMgr()     { return mdm; }
    
+   /**
+    * Returns a report of the file manager's I/O statistics,
+    * first for each class of file and then for each file.
+    * @return the I/O statistics, one line per class or file
+    */
+   public static String ioStats() {
+      StringBuilder sb = new StringBuilder();
+      for (FileClass c : FileClass.values())
+         sb.append(c).append(": ").append(fm.classStats(c)).append("\n");
+      for (Map.Entry<String,IOStats> e : fm.fileStats().entrySet())
+         if (!e.getValue().isEmpty())
+            sb.append(e.getKey()).append(": ").append(e.getValue()).append("\n");
+      return sb.toString();
+   }
+   
+   /**
+    * Publishes the I/O statistics of each class of file
+    * as a JMX bean named "simpledb:type=FileIO,class=" followed by the class.
+    * Beans registered by an earlier initialization are replaced.
+    */
+   private static void registerIOStats() {
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         for (FileClass c : FileClass.values()) {
+            ObjectName name = new ObjectName("simpledb:type=FileIO,class=" + c);
+            if (server.isRegistered(name))
+               server.unregisterMBean(name);
+            server.registerMBean(fm.classStats(c), name);
+         }
+      }
+      catch (JMException e) {
+         throw new RuntimeException("cannot register I/O statistics");
+      }
+   }
+   
+   /**
+    * Publishes the buffer manager as a JMX bean named "simpledb:type=BufferPool",
+    * through which the pool can also be resized.
+    * A bean registered by an earlier initialization is replaced.
+    */
+   private static void registerBufferMgr() {
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName("simpledb:type=BufferPool");
+         if (server.isRegistered(name))
+            server.unregisterMBean(name);
+         server.registerMBean(bm, name);
+      }
+      catch (JMException e) {
+         throw new RuntimeException("cannot register the buffer pool");
+      }
+   }
+   
+   /**
+    * Arranges for the blocks in the buffer pool to be
+    * recorded when the JVM shuts down, for the next
+    * initialization to read back.
+    * A hook registered by an earlier initialization is replaced.
+    */
+   private static void saveHotPagesAtShutdown() {
+      if (shutdownHook != null)
+         Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      shutdownHook = new Thread("simpledb-shutdown") {
+         public void run() {
+            bm.saveHotPages();
+         }
+      };
+      Runtime.getRuntime().addShutdownHook(shutdownHook);
+   }
+   
    /**
     * Creates a planner for SQL commands.
     * To change how the planner works, modify this method.
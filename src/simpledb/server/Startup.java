@@ -5,7 +5,13 @@ import java.rmi.registry.*;
 
 public class Startup {
    public static void main(String args[]) throws Exception {
-      // configure and initialize the database
+      // configure and initialize the database;
+      // the optional second argument is the page size of a new database,
+      // and the optional third argument is the buffer replacement policy
+      if (args.length > 1)
+         SimpleDB.PAGE_SIZE = Integer.parseInt(args[1]);
+      if (args.length > 2)
+         SimpleDB.BUFFER_POLICY = args[2];
       SimpleDB.init(args[0]);
       
       // create a registry specific for the server on the default port
@@ -30,7 +30,17 @@ class BufferList {
     * @param blk a reference to the disk block
     */
    void pin(Block blk) {
-      Buffer buff = bufferMgr.pin(blk);
+      pin(blk, null);
+   }
+   
+   /**
+    * Pins the block through the specified ring,
+    * and keeps track of the buffer internally.
+    * @param blk a reference to the disk block
+    * @param ring the scan's buffer ring, or null
+    */
+   void pin(Block blk, BufferRing ring) {
+      Buffer buff = bufferMgr.pin(blk, ring);
       buffers.put(blk, buff);
       pins.add(blk);
    }
@@ -40,10 +50,11 @@ class BufferList {
     * and pins it.
     * @param filename the name of the file
     * @param fmtr the formatter used to initialize the new page
+    * @param ring the scan's buffer ring, or null
     * @return a reference to the newly-created block
     */
-   Block pinNew(String filename, PageFormatter fmtr) {
-      Buffer buff = bufferMgr.pinNew(filename, fmtr);
+   Block pinNew(String filename, PageFormatter fmtr, BufferRing ring) {
+      Buffer buff = bufferMgr.pinNew(filename, fmtr, ring);
       Block blk = buff.block();
       buffers.put(blk, buff);
       pins.add(blk);
@@ -3,8 +3,10 @@ package simpledb.tx;
 import simpledb.server.SimpleDB;
 import simpledb.file.Block;
 import simpledb.buffer.*;
+import simpledb.tx.recovery.CheckpointMgr;
 import simpledb.tx.recovery.RecoveryMgr;
 import simpledb.tx.concurrency.ConcurrencyMgr;
+import java.util.*;
 
 /**
  * Provides transaction management for clients,
@@ -19,6 +21,7 @@ public class Transaction {
    private ConcurrencyMgr concurMgr;
    private int txnum;
    private BufferList myBuffers = new BufferList();
+   private List<String> tempFiles = new ArrayList<String>();
    
    /**
     * Creates a new transaction and its associated 
@@ -31,8 +34,10 @@ public class Transaction {
     * {@link simpledb.server.SimpleDB#init(String)} or 
     * {@link simpledb.server.SimpleDB#initFileLogAndBufferMgr(String)} or
     * is called first.
+    * The constructor waits while a checkpoint is being written.
     */
    public Transaction() {
+      CheckpointMgr.begin();
       txnum       = nextTxNumber();
       recoveryMgr = new RecoveryMgr(txnum);
       concurMgr   = new ConcurrencyMgr();
@@ -40,15 +45,20 @@ public class Transaction {
    
    /**
     * Commits the current transaction.
-    * Flushes all modified buffers (and their log records),
+    * Forces the files to which the transaction appended blocks,
     * writes and flushes a commit record to the log,
+    * leaving the modified buffers to be written later,
     * releases all locks, and unpins any pinned buffers.
+    * Finally, drops the transaction's temporary tables,
+    * and writes a checkpoint if one is due.
     */
    public void commit() {
       recoveryMgr.commit();
       concurMgr.release();
       myBuffers.unpinAll();
+      dropTempFiles();
       System.out.println("transaction " + txnum + " committed");
+      CheckpointMgr.end();
    }
    
    /**
@@ -57,12 +67,16 @@ public class Transaction {
     * flushes those buffers,
     * writes and flushes a rollback record to the log,
     * releases all locks, and unpins any pinned buffers.
+    * Finally, drops the transaction's temporary tables,
+    * and writes a checkpoint if one is due.
     */
    public void rollback() {
       recoveryMgr.rollback();
       concurMgr.release();
       myBuffers.unpinAll();
+      dropTempFiles();
       System.out.println("transaction " + txnum + " rolled back");
+      CheckpointMgr.end();
    }
    
    /**
@@ -71,7 +85,8 @@ public class Transaction {
     * uncommitted transactions.  Finally, 
     * writes a quiescent checkpoint record to the log.
     * This method is called only during system startup,
-    * before user transactions begin.
+    * before user transactions begin;
+    * later checkpoints are written by {@link CheckpointMgr}.
     */
    public void recover() {
       SimpleDB.bufferMgr().flushAll(txnum);
@@ -87,6 +102,18 @@ public class Transaction {
       myBuffers.pin(blk);
    }
    
+   /**
+    * Pins the specified block through a buffer ring,
+    * so that a large scan does not replace
+    * the blocks that other transactions are using.
+    * @param blk a reference to the disk block
+    * @param ring the scan's buffer ring, or null
+    * @see BufferRing
+    */
+   public void pin(Block blk, BufferRing ring) {
+      myBuffers.pin(blk, ring);
+   }
+   
    /**
     * Unpins the specified block.
     * The transaction looks up the buffer pinned to this block,
@@ -97,6 +124,52 @@ public class Transaction {
       myBuffers.unpin(blk);
    }
    
+   /**
+    * Asks the buffer manager to read the specified
+    * consecutive blocks in the background, because
+    * the transaction expects to pin them soon.
+    * No lock is obtained, because no values are accessed.
+    * @param first a reference to the first disk block
+    * @param count the number of blocks
+    */
+   public void prefetch(Block first, int count) {
+      prefetch(first, count, null);
+   }
+   
+   /**
+    * Asks for the specified consecutive blocks to be read
+    * in the background, into the buffers of the specified ring.
+    * @param first a reference to the first disk block
+    * @param count the number of blocks
+    * @param ring the scan's buffer ring, or null
+    */
+   public void prefetch(Block first, int count, BufferRing ring) {
+      SimpleDB.bufferMgr().prefetch(first, count, ring);
+   }
+   
+   /**
+    * Reads the specified consecutive blocks into the
+    * buffer pool with as few disk accesses as possible,
+    * because the transaction is about to pin them all.
+    * No lock is obtained, because no values are accessed.
+    * @param first a reference to the first disk block
+    * @param count the number of blocks
+    */
+   public void load(Block first, int count) {
+      load(first, count, null);
+   }
+   
+   /**
+    * Reads the specified consecutive blocks into the
+    * buffers of the specified ring before returning.
+    * @param first a reference to the first disk block
+    * @param count the number of blocks
+    * @param ring the scan's buffer ring, or null
+    */
+   public void load(Block first, int count, BufferRing ring) {
+      SimpleDB.bufferMgr().load(first, count, ring);
+   }
+   
    /**
     * Returns the integer value stored at the
     * specified offset of the specified block.
@@ -143,7 +216,7 @@ public class Transaction {
    public void setInt(Block blk, int offset, int val) {
       concurMgr.xLock(blk);
       Buffer buff = myBuffers.getBuffer(blk);
-      int lsn = recoveryMgr.setInt(buff, offset, val);
+      long lsn = recoveryMgr.setInt(buff, offset, val);
       buff.setInt(offset, val, txnum, lsn);
    }
    
@@ -163,7 +236,7 @@ public class Transaction {
    public void setString(Block blk, int offset, String val) {
       concurMgr.xLock(blk);
       Buffer buff = myBuffers.getBuffer(blk);
-      int lsn = recoveryMgr.setString(buff, offset, val);
+      long lsn = recoveryMgr.setString(buff, offset, val);
       buff.setString(offset, val, txnum, lsn);
    }
    
@@ -191,13 +264,58 @@ public class Transaction {
     * @return a reference to the newly-created disk block
     */
    public Block append(String filename, PageFormatter fmtr) {
+      return append(filename, fmtr, null);
+   }
+   
+   /**
+    * Appends a new block to the end of the specified file,
+    * using a buffer of the specified ring.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the new page
+    * @param ring the scan's buffer ring, or null
+    * @return a reference to the newly-created disk block
+    */
+   public Block append(String filename, PageFormatter fmtr, BufferRing ring) {
       Block dummyblk = new Block(filename, END_OF_FILE);
       concurMgr.xLock(dummyblk);
-      Block blk = myBuffers.pinNew(filename, fmtr);
+      Block blk = myBuffers.pinNew(filename, fmtr, ring);
+      recoveryMgr.append(blk);
       unpin(blk);
       return blk;
    }
    
+   /**
+    * Registers the file of a temporary table created by
+    * the transaction, so that the table is dropped
+    * when the transaction commits or rolls back.
+    * @param filename the name of the table's file
+    */
+   public void addTempFile(String filename) {
+      tempFiles.add(filename);
+   }
+   
+   /**
+    * Drops the specified temporary table before the
+    * transaction ends, so that its space can be reused.
+    * Its blocks are discarded from the buffer pool
+    * and its extents are returned to the file manager.
+    * The table must not be pinned.
+    * @param filename the name of the table's file
+    */
+   public void dropTempFile(String filename) {
+      tempFiles.remove(filename);
+      SimpleDB.bufferMgr().discard(filename);
+      SimpleDB.fileMgr().dropTempFile(filename);
+   }
+   
+   private void dropTempFiles() {
+      for (String filename : tempFiles) {
+         SimpleDB.bufferMgr().discard(filename);
+         SimpleDB.fileMgr().dropTempFile(filename);
+      }
+      tempFiles.clear();
+   }
+   
    private static synchronized int nextTxNumber() {
       nextTxNum++;
       System.out.println("new transaction: " + nextTxNum);
@@ -0,0 +1,105 @@
+package simpledb.tx.recovery;
+
+import simpledb.server.SimpleDB;
+
+/**
+ * Writes quiescent checkpoints while the system is running,
+ * so that recovery does not have to go through
+ * the whole log written since the last restart.
+ * After every {@link SimpleDB#CHECKPOINT_INTERVAL} finished transactions,
+ * the transaction that finishes next stops new transactions from starting,
+ * and waits for the active ones to finish.
+ * It then writes every dirty buffer, forces the database files,
+ * and writes a checkpoint record to the log and flushes it.
+ * The undo pass of recovery stops at that record,
+ * and the redo pass starts from it.
+ * <p>
+ * A transaction that does not finish within {@link #MAX_WAIT}
+ * milliseconds (such as one that a client has left open)
+ * causes the checkpoint to be skipped until another
+ * interval has passed, so new transactions are
+ * held up for at most that long.
+ * The checkpoint is also skipped if a page cannot be written.
+ * If the interval is zero, checkpoints are written only
+ * when the system starts.
+ */
+public class CheckpointMgr {
+   /**
+    * The longest time, in milliseconds, for which a checkpoint
+    * waits for the active transactions to finish.
+    */
+   public static final long MAX_WAIT = 1000;
+
+   private static int active = 0;
+   private static int finished = 0;
+   private static boolean checkpointing = false;
+
+   /**
+    * Registers a new transaction,
+    * waiting while a checkpoint is in progress.
+    * This method is called by the constructor of
+    * {@link simpledb.tx.Transaction}.
+    */
+   public static synchronized void begin() {
+      try {
+         while (checkpointing)
+            CheckpointMgr.class.wait();
+      }
+      catch (InterruptedException e) {
+         throw new RuntimeException("interrupted while waiting for a checkpoint");
+      }
+      active++;
+   }
+
+   /**
+    * Registers the end of a transaction, and writes a checkpoint
+    * if enough transactions have finished since the last one.
+    * This method is called after the transaction
+    * has released its locks and buffers.
+    */
+   public static synchronized void end() {
+      active--;
+      finished++;
+      if (checkpointing) {
+         // wake the thread waiting to write the checkpoint
+         CheckpointMgr.class.notifyAll();
+         return;
+      }
+      int interval = SimpleDB.CHECKPOINT_INTERVAL;
+      if (interval <= 0 || finished < interval)
+         return;
+      finished = 0;
+      checkpointing = true;
+      try {
+         long timestamp = System.currentTimeMillis();
+         long remaining = MAX_WAIT;
+         while (active > 0 && remaining > 0) {
+            CheckpointMgr.class.wait(remaining);
+            remaining = MAX_WAIT - (System.currentTimeMillis() - timestamp);
+         }
+         if (active == 0)
+            checkpoint();
+      }
+      catch (InterruptedException e) {
+         // the checkpoint is skipped
+      }
+      catch (RuntimeException e) {
+         // a page could not be written, so no checkpoint record
+         // is written, and recovery still starts from the last one
+      }
+      finally {
+         checkpointing = false;
+         CheckpointMgr.class.notifyAll();
+      }
+   }
+
+   /**
+    * Writes a quiescent checkpoint.
+    * Called while no transaction is active.
+    */
+   private static void checkpoint() {
+      SimpleDB.bufferMgr().flushAll();
+      long lsn = new CheckpointRecord().writeToLog();
+      SimpleDB.logMgr().flush(lsn);
+   }
+}
@@ -1,6 +1,8 @@
 package simpledb.tx.recovery;
 
-import simpledb.log.BasicLogRecord;
+import static simpledb.file.Page.INT_SIZE;
+import simpledb.server.SimpleDB;
+import simpledb.log.*;
 
 /**
  * The CHECKPOINT log record.
@@ -26,9 +28,16 @@ class CheckpointRecord implements LogRecord {
     * and nothing else.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {CHECKPOINT};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      return SimpleDB.logMgr().append(this);
+   }
+   
+   public int logSize() {
+      return INT_SIZE;
+   }
+   
+   public void writeTo(LogWriter w) {
+      w.writeInt(CHECKPOINT);
    }
    
    public int op() {
@@ -49,6 +58,12 @@ class CheckpointRecord implements LogRecord {
     */
    public void undo(int txnum) {}
    
+   /**
+    * Does nothing, because a checkpoint record
+    * contains no redo information.
+    */
+   public void redo(int txnum) {}
+   
    public String toString() {
       return "<CHECKPOINT>";
    }
@@ -1,6 +1,8 @@
 package simpledb.tx.recovery;
 
-import simpledb.log.BasicLogRecord;
+import static simpledb.file.Page.INT_SIZE;
+import simpledb.server.SimpleDB;
+import simpledb.log.*;
 
 /**
  * The COMMIT log record
@@ -31,9 +33,17 @@ class CommitRecord implements LogRecord {
     * followed by the transaction id.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {COMMIT, txnum};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      return SimpleDB.logMgr().append(this);
+   }
+   
+   public int logSize() {
+      return 2 * INT_SIZE;
+   }
+   
+   public void writeTo(LogWriter w) {
+      w.writeInt(COMMIT);
+      w.writeInt(txnum);
    }
    
    public int op() {
@@ -50,6 +60,12 @@ class CommitRecord implements LogRecord {
     */
    public void undo(int txnum) {}
    
+   /**
+    * Does nothing, because a commit record
+    * contains no redo information.
+    */
+   public void redo(int txnum) {}
+   
    public String toString() {
       return "<COMMIT " + txnum + ">";
    }
@@ -1,13 +1,12 @@
 package simpledb.tx.recovery;
 
-import simpledb.log.LogMgr;
-import simpledb.server.SimpleDB;
+import simpledb.log.Loggable;
 
 /**
  * The interface implemented by each type of log record.
  * @author Edward Sciore
  */
-public interface LogRecord {
+public interface LogRecord extends Loggable {
    /**
     * The six different types of log record
     */
@@ -15,13 +14,11 @@ public interface LogRecord {
       COMMIT = 2, ROLLBACK  = 3,
       SETINT = 4, SETSTRING = 5;
    
-   static final LogMgr logMgr = SimpleDB.logMgr();
-   
    /**
     * Writes the record to the log and returns its LSN.
     * @return the LSN of the record in the log
     */
-   int writeToLog();
+   long writeToLog();
    
    /**
     * Returns the log record's type. 
@@ -43,4 +40,12 @@ public interface LogRecord {
     * @param txnum the id of the transaction that is performing the undo.
     */
    void undo(int txnum);
+   
+   /**
+    * Redoes the operation encoded by this log record.
+    * As with undo, only SETINT and SETSTRING records
+    * do anything interesting.
+    * @param txnum the id of the transaction that is performing the redo.
+    */
+   void redo(int txnum);
 }
\ No newline at end of file
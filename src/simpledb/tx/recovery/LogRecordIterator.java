@@ -2,19 +2,38 @@ package simpledb.tx.recovery;
 
 import static simpledb.tx.recovery.LogRecord.*;
 import java.util.Iterator;
-import simpledb.log.BasicLogRecord;
+import simpledb.log.*;
 import simpledb.server.SimpleDB;
 
 /**
  * A class that provides the ability to read records
- * from the log in reverse order.
+ * from the log in reverse order,
+ * or in forward order after a given LSN.
  * Unlike the similar class 
  * {@link simpledb.log.LogIterator LogIterator},  
  * this class understands the meaning of the log records.
+ * The iterator must be closed when it is no longer needed.
  * @author Edward Sciore
  */
-class LogRecordIterator implements Iterator<LogRecord> {
-   private Iterator<BasicLogRecord> iter = SimpleDB.logMgr().iterator();
+class LogRecordIterator implements Iterator<LogRecord>, AutoCloseable {
+   private LogIterator iter;
+   
+   /**
+    * Creates an iterator that reads the log in reverse order,
+    * starting with the most recent record.
+    */
+   public LogRecordIterator() {
+      iter = SimpleDB.logMgr().iterator();
+   }
+   
+   /**
+    * Creates an iterator that reads the records
+    * that follow the specified LSN, in forward order.
+    * @param lsn the LSN of a log record, or 0 for the start of the log
+    */
+   public LogRecordIterator(long lsn) {
+      iter = SimpleDB.logMgr().iterator(lsn);
+   }
    
    public boolean hasNext() {
       return iter.hasNext();
@@ -50,7 +69,20 @@ class LogRecordIterator implements Iterator<LogRecord> {
       }
    } 
    
+   /**
+    * Returns the LSN of the record that was
+    * returned by the last call to next.
+    * @return the LSN of the current record
+    */
+   public long lsn() {
+      return iter.lsn();
+   }
+   
    public void remove() {
       throw new UnsupportedOperationException();
    }
+   
+   public void close() {
+      iter.close();
+   }
 }
@@ -8,10 +8,26 @@ import java.util.*;
 
 /**
  * The recovery manager.  Each transaction has its own recovery manager.
+ * The log records of modifications hold both the old and the new
+ * values, so that recovery can undo uncommitted transactions
+ * and redo committed ones.
+ * Thus a commit forces only the log, and the modified pages are
+ * written later, when their buffers are replaced, by the
+ * background writer, or when a checkpoint is written
+ * (at startup, and periodically by the {@link CheckpointMgr}).
+ * Recovery redoes the log written since the last checkpoint.
+ * Appending a block is not logged, so a commit also forces
+ * the files to which the transaction appended blocks,
+ * so that redo finds those blocks formatted.
+ * The recovery manager remembers the blocks that its transaction
+ * has modified, so that a rollback flushes only
+ * those blocks instead of searching the whole buffer pool.
  * @author Edward Sciore
  */
 public class RecoveryMgr {
    private int txnum;
+   private Set<Block> modified = new HashSet<Block>();
+   private Set<String> appended = new HashSet<String>();
 
    /**
     * Creates a recovery manager for the specified transaction.
@@ -24,67 +40,94 @@ public class RecoveryMgr {
 
    /**
     * Writes a commit record to the log, and flushes it to disk.
+    * The modified pages are not flushed, since the log
+    * records of the transaction are enough to redo it;
+    * but the files to which the transaction appended blocks
+    * are forced before the commit record is written.
     */
    public void commit() {
-      SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new CommitRecord(txnum).writeToLog();
+      for (String filename : appended)
+         SimpleDB.fileMgr().force(filename);
+      long lsn = new CommitRecord(txnum).writeToLog();
       SimpleDB.logMgr().flush(lsn);
    }
 
    /**
     * Writes a rollback record to the log, and flushes it to disk.
+    * The undone pages are flushed before the rollback record
+    * is written, since recovery neither undoes nor redoes the
+    * modifications of a transaction that was rolled back.
     */
    public void rollback() {
       doRollback();
-      SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new RollbackRecord(txnum).writeToLog();
+      SimpleDB.bufferMgr().flush(txnum, modified);
+      long lsn = new RollbackRecord(txnum).writeToLog();
       SimpleDB.logMgr().flush(lsn);
    }
 
    /**
-    * Recovers uncompleted transactions from the log,
+    * Undoes the uncompleted transactions in the log
+    * and redoes the committed ones,
     * then writes a quiescent checkpoint record to the log and flushes it.
+    * Since the undone and redone values belong to other transactions,
+    * the whole buffer pool is flushed.
     */
    public void recover() {
-      doRecover();
+      Set<Integer> committedTxs = new HashSet<Integer>();
+      long checkpoint = doUndo(committedTxs);
+      doRedo(checkpoint, committedTxs);
       SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new CheckpointRecord().writeToLog();
+      long lsn = new CheckpointRecord().writeToLog();
       SimpleDB.logMgr().flush(lsn);
+   }
 
+   /**
+    * Remembers that the transaction appended the specified block,
+    * so that its file is forced when the transaction commits.
+    * Appends to temporary files are not remembered.
+    * @param blk the new block
+    */
+   public void append(Block blk) {
+      if (!isTempBlock(blk))
+         appended.add(blk.fileName());
    }
 
    /**
     * Writes a setint record to the log, and returns its lsn.
     * Updates to temporary files are not logged; instead, a
     * "dummy" negative lsn is returned.
+    * Either way, the block is remembered as modified.
     * @param buff the buffer containing the page
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setInt(Buffer buff, int offset, int newval) {
+   public long setInt(Buffer buff, int offset, int newval) {
       int oldval = buff.getInt(offset);
       Block blk = buff.block();
+      modified.add(blk);
       if (isTempBlock(blk))
          return -1;
       else
-         return new SetIntRecord(txnum, blk, offset, oldval).writeToLog();
+         return new SetIntRecord(txnum, blk, offset, oldval, newval).writeToLog();
    }
 
    /**
     * Writes a setstring record to the log, and returns its lsn.
     * Updates to temporary files are not logged; instead, a
     * "dummy" negative lsn is returned.
+    * Either way, the block is remembered as modified.
     * @param buff the buffer containing the page
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setString(Buffer buff, int offset, String newval) {
+   public long setString(Buffer buff, int offset, String newval) {
       String oldval = buff.getString(offset);
       Block blk = buff.block();
+      modified.add(blk);
       if (isTempBlock(blk))
          return -1;
       else
-         return new SetStringRecord(txnum, blk, offset, oldval).writeToLog();
+         return new SetStringRecord(txnum, blk, offset, oldval, newval).writeToLog();
    }
 
    /**
@@ -95,36 +138,65 @@ public class RecoveryMgr {
     * until it finds the transaction's START record.
     */
    private void doRollback() {
-      Iterator<LogRecord> iter = new LogRecordIterator();
-      while (iter.hasNext()) {
-         LogRecord rec = iter.next();
-         if (rec.txNumber() == txnum) {
-            if (rec.op() == START)
-               return;
-            rec.undo(txnum);
+      try (LogRecordIterator iter = new LogRecordIterator()) {
+         while (iter.hasNext()) {
+            LogRecord rec = iter.next();
+            if (rec.txNumber() == txnum) {
+               if (rec.op() == START)
+                  return;
+               rec.undo(txnum);
+            }
          }
       }
    }
 
    /**
-    * Does a complete database recovery.
-    * The method iterates through the log records.
+    * Does the undo pass of recovery.
+    * The method iterates backwards through the log records.
     * Whenever it finds a log record for an unfinished
     * transaction, it calls undo() on that record.
     * The method stops when it encounters a CHECKPOINT record
     * or the end of the log.
+    * Since the transactions held their exclusive locks until
+    * they finished, an undone value was not later modified
+    * by a committed transaction, so the undo pass can
+    * come before the redo pass.
+    * @param committedTxs the set to which the committed transactions are added
+    * @return the LSN of the checkpoint record, or 0 if there is none
+    */
+   private long doUndo(Set<Integer> committedTxs) {
+      Set<Integer> finishedTxs = new HashSet<Integer>();
+      try (LogRecordIterator iter = new LogRecordIterator()) {
+         while (iter.hasNext()) {
+            LogRecord rec = iter.next();
+            if (rec.op() == CHECKPOINT)
+               return iter.lsn();
+            if (rec.op() == COMMIT)
+               committedTxs.add(rec.txNumber());
+            if (rec.op() == COMMIT || rec.op() == ROLLBACK)
+               finishedTxs.add(rec.txNumber());
+            else if (!finishedTxs.contains(rec.txNumber()))
+               rec.undo(txnum);
+         }
+      }
+      return 0;
+   }
+
+   /**
+    * Does the redo pass of recovery.
+    * The method iterates forwards through the log records
+    * that follow the checkpoint,
+    * calling redo() on each record of a committed transaction.
+    * @param checkpoint the LSN of the checkpoint record, or 0
+    * @param committedTxs the committed transactions
     */
-   private void doRecover() {
-      Collection<Integer> finishedTxs = new ArrayList<Integer>();
-      Iterator<LogRecord> iter = new LogRecordIterator();
-      while (iter.hasNext()) {
-         LogRecord rec = iter.next();
-         if (rec.op() == CHECKPOINT)
-            return;
-         if (rec.op() == COMMIT || rec.op() == ROLLBACK)
-            finishedTxs.add(rec.txNumber());
-         else if (!finishedTxs.contains(rec.txNumber()))
-            rec.undo(txnum);
+   private void doRedo(long checkpoint, Set<Integer> committedTxs) {
+      try (LogRecordIterator iter = new LogRecordIterator(checkpoint)) {
+         while (iter.hasNext()) {
+            LogRecord rec = iter.next();
+            if (committedTxs.contains(rec.txNumber()))
+               rec.redo(txnum);
+         }
       }
    }
 
@@ -1,12 +1,13 @@
 package simpledb.tx.recovery;
 
+import static simpledb.file.Page.*;
 import simpledb.server.SimpleDB;
 import simpledb.buffer.*;
 import simpledb.file.Block;
-import simpledb.log.BasicLogRecord;
+import simpledb.log.*;
 
 class SetIntRecord implements LogRecord {
-   private int txnum, offset, val;
+   private int txnum, offset, oldval, newval;
    private Block blk;
 
    /**
@@ -14,17 +15,19 @@ class SetIntRecord implements LogRecord {
     * @param txnum the ID of the specified transaction
     * @param blk the block containing the value
     * @param offset the offset of the value in the block
-    * @param val the new value
+    * @param oldval the value before the modification
+    * @param newval the value after the modification
     */
-   public SetIntRecord(int txnum, Block blk, int offset, int val) {
+   public SetIntRecord(int txnum, Block blk, int offset, int oldval, int newval) {
       this.txnum = txnum;
       this.blk = blk;
       this.offset = offset;
-      this.val = val;
+      this.oldval = oldval;
+      this.newval = newval;
    }
 
    /**
-    * Creates a log record by reading five other values from the log.
+    * Creates a log record by reading six other values from the log.
     * @param rec the basic log record
     */
    public SetIntRecord(BasicLogRecord rec) {
@@ -33,21 +36,34 @@ class SetIntRecord implements LogRecord {
       int blknum = rec.nextInt();
       blk = new Block(filename, blknum);
       offset = rec.nextInt();
-      val = rec.nextInt();
+      oldval = rec.nextInt();
+      newval = rec.nextInt();
    }
 
    /**
     * Writes a setInt record to the log.
     * This log record contains the SETINT operator,
     * followed by the transaction id, the filename, number,
-    * and offset of the modified block, and the previous
-    * integer value at that offset.
+    * and offset of the modified block, and the
+    * integer values at that offset before and after the modification.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {SETINT, txnum, blk.fileName(),
-         blk.number(), offset, val};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      return SimpleDB.logMgr().append(this);
+   }
+
+   public int logSize() {
+      return 6 * INT_SIZE + STR_SIZE(blk.fileName().length());
+   }
+
+   public void writeTo(LogWriter w) {
+      w.writeInt(SETINT);
+      w.writeInt(txnum);
+      w.writeString(blk.fileName());
+      w.writeInt(blk.number());
+      w.writeInt(offset);
+      w.writeInt(oldval);
+      w.writeInt(newval);
    }
 
    public int op() {
@@ -59,7 +75,7 @@ class SetIntRecord implements LogRecord {
    }
 
    public String toString() {
-      return "<SETINT " + txnum + " " + blk + " " + offset + " " + val + ">";
+      return "<SETINT " + txnum + " " + blk + " " + offset + " " + oldval + " " + newval + ">";
    }
 
    /**
@@ -72,7 +88,21 @@ class SetIntRecord implements LogRecord {
    public void undo(int txnum) {
       BufferMgr buffMgr = SimpleDB.bufferMgr();
       Buffer buff = buffMgr.pin(blk);
-      buff.setInt(offset, val, txnum, -1);
+      buff.setInt(offset, oldval, txnum, -1);
+      buffMgr.unpin(buff);
+   }
+
+   /**
+    * Replaces the specified data value with the new value saved in the log record.
+    * The method pins a buffer to the specified block,
+    * calls setInt to reapply the modification
+    * (using a dummy LSN), and unpins the buffer.
+    * @see simpledb.tx.recovery.LogRecord#redo(int)
+    */
+   public void redo(int txnum) {
+      BufferMgr buffMgr = SimpleDB.bufferMgr();
+      Buffer buff = buffMgr.pin(blk);
+      buff.setInt(offset, newval, txnum, -1);
       buffMgr.unpin(buff);
    }
 }
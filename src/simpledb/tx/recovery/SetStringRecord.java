@@ -1,13 +1,14 @@
 package simpledb.tx.recovery;
 
+import static simpledb.file.Page.*;
 import simpledb.server.SimpleDB;
 import simpledb.buffer.*;
 import simpledb.file.Block;
-import simpledb.log.BasicLogRecord;
+import simpledb.log.*;
 
 class SetStringRecord implements LogRecord {
    private int txnum, offset;
-   private String val;
+   private String oldval, newval;
    private Block blk;
    
    /**
@@ -15,17 +16,19 @@ class SetStringRecord implements LogRecord {
     * @param txnum the ID of the specified transaction
     * @param blk the block containing the value
     * @param offset the offset of the value in the block
-    * @param val the new value
+    * @param oldval the value before the modification
+    * @param newval the value after the modification
     */
-   public SetStringRecord(int txnum, Block blk, int offset, String val) {
+   public SetStringRecord(int txnum, Block blk, int offset, String oldval, String newval) {
       this.txnum = txnum;
       this.blk = blk;
       this.offset = offset;
-      this.val = val;
+      this.oldval = oldval;
+      this.newval = newval;
    }
    
    /**
-    * Creates a log record by reading five other values from the log.
+    * Creates a log record by reading six other values from the log.
     * @param rec the basic log record
     */
    public SetStringRecord(BasicLogRecord rec) {
@@ -34,21 +37,35 @@ class SetStringRecord implements LogRecord {
       int blknum = rec.nextInt();
       blk = new Block(filename, blknum);
       offset = rec.nextInt();
-      val = rec.nextString();
+      oldval = rec.nextString();
+      newval = rec.nextString();
    }
    
    /** 
     * Writes a setString record to the log.
     * This log record contains the SETSTRING operator,
     * followed by the transaction id, the filename, number,
-    * and offset of the modified block, and the previous
-    * string value at that offset.
+    * and offset of the modified block, and the
+    * string values at that offset before and after the modification.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {SETSTRING, txnum, blk.fileName(),
-         blk.number(), offset, val};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      return SimpleDB.logMgr().append(this);
+   }
+   
+   public int logSize() {
+      return 4 * INT_SIZE + STR_SIZE(blk.fileName().length())
+             + STR_SIZE(oldval.length()) + STR_SIZE(newval.length());
+   }
+   
+   public void writeTo(LogWriter w) {
+      w.writeInt(SETSTRING);
+      w.writeInt(txnum);
+      w.writeString(blk.fileName());
+      w.writeInt(blk.number());
+      w.writeInt(offset);
+      w.writeString(oldval);
+      w.writeString(newval);
    }
    
    public int op() {
@@ -60,7 +77,7 @@ class SetStringRecord implements LogRecord {
    }
    
    public String toString() {
-      return "<SETSTRING " + txnum + " " + blk + " " + offset + " " + val + ">";
+      return "<SETSTRING " + txnum + " " + blk + " " + offset + " " + oldval + " " + newval + ">";
    }
    
    /** 
@@ -73,7 +90,21 @@ class SetStringRecord implements LogRecord {
    public void undo(int txnum) {
       BufferMgr buffMgr = SimpleDB.bufferMgr();
       Buffer buff = buffMgr.pin(blk);
-      buff.setString(offset, val, txnum, -1);
+      buff.setString(offset, oldval, txnum, -1);
+      buffMgr.unpin(buff);
+   }
+   
+   /** 
+    * Replaces the specified data value with the new value saved in the log record.
+    * The method pins a buffer to the specified block,
+    * calls setString to reapply the modification
+    * (using a dummy LSN), and unpins the buffer.
+    * @see simpledb.tx.recovery.LogRecord#redo(int)
+    */
+   public void redo(int txnum) {
+      BufferMgr buffMgr = SimpleDB.bufferMgr();
+      Buffer buff = buffMgr.pin(blk);
+      buff.setString(offset, newval, txnum, -1);
       buffMgr.unpin(buff);
    }
 }